@@ -0,0 +1,203 @@
+package sk.entity;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 
+ * All entities of an {@link EntityStore} that have exactly the same
+ * component types. Each type has a column, an array holding the
+ * component of that type for every entity, so the components of
+ * the n:th entity are at index n in every column.
+ * 
+ * The columns are replaced when they grow and entities move around
+ * when others are removed, so columns and indices should only be
+ * kept for as long as the entities aren't changed.
+ * 
+ */
+public final class Archetype {
+	
+	//The types, sorted by their TypeIndex
+	private final Class<?>[] types;
+	final BitSet mask;
+	//The column of each type, -1 for the types that aren't part of this archetype
+	private final int[] columnOf;
+	
+	private Object[][] columns;
+	private int[] entities;
+	private int size = 0;
+	
+	Archetype(Class<?>[] types, BitSet mask) {
+		this.types = types;
+		this.mask = mask;
+		
+		columnOf = new int[types.length == 0 ? 0 : TypeIndex.of(types[types.length - 1]) + 1];
+		Arrays.fill(columnOf, -1);
+		
+		columns = new Object[types.length][];
+		
+		for(int i = 0; i < types.length; i++) {
+			columnOf[TypeIndex.of(types[i])] = i;
+			columns[i] = (Object[]) Array.newInstance(types[i], 16);
+		}
+		
+		entities = new int[16];
+	}
+	
+	/**
+	 * 
+	 * Returns the number of entities in this archetype.
+	 * 
+	 * @return the number of entities.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * 
+	 * Returns the entity at the specified index.
+	 * 
+	 * @param i the index.
+	 * @return the id of the entity.
+	 */
+	public int getEntity(int i) {
+		return entities[i];
+	}
+	
+	/**
+	 * 
+	 * Checks whether or not the entities in this archetype have components of the specified type.
+	 * 
+	 * @param type the component type to check.
+	 * @return {@code true} if the type is part of this archetype.
+	 */
+	public boolean has(Class<?> type) {
+		return column(TypeIndex.of(type)) != -1;
+	}
+	
+	/**
+	 * 
+	 * Returns the column of the specified type. Only the first {@link #size()}
+	 * components are used, the rest of the array is empty.
+	 * 
+	 * @param type the component type.
+	 * @return the components of the type, or {@code null} if the type is not part of this archetype.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T[] getColumn(Class<T> type) {
+		int c = column(TypeIndex.of(type));
+		
+		if(c == -1)
+			return null;
+		
+		return (T[]) columns[c];
+	}
+	
+	/**
+	 * 
+	 * Returns a list containing the component types of this archetype.
+	 * 
+	 * @return all component types.
+	 */
+	public List<Class<?>> getTypes() {
+		return new ArrayList<>(Arrays.asList(types));
+	}
+	
+	Class<?>[] types() {
+		return types;
+	}
+	
+	int column(int type) {
+		if(type >= columnOf.length)
+			return -1;
+		
+		return columnOf[type];
+	}
+	
+	/**
+	 * 
+	 * Adds an entity without any components set.
+	 * 
+	 * @param entity the id of the entity.
+	 * @return the index of the entity.
+	 */
+	int add(int entity) {
+		if(size == entities.length) {
+			int length = size * 2;
+			entities = Arrays.copyOf(entities, length);
+			
+			for(int i = 0; i < columns.length; i++)
+				columns[i] = Arrays.copyOf(columns[i], length);
+		}
+		
+		entities[size] = entity;
+		
+		return size++;
+	}
+	
+	/**
+	 * 
+	 * Sets the component in a column.
+	 * 
+	 * @param c the column.
+	 * @param i the index of the entity.
+	 * @param component the component.
+	 */
+	void set(int c, int i, Object component) {
+		columns[c][i] = component;
+	}
+	
+	/**
+	 * 
+	 * Returns the component in a column.
+	 * 
+	 * @param c the column.
+	 * @param i the index of the entity.
+	 * @return the component.
+	 */
+	Object get(int c, int i) {
+		return columns[c][i];
+	}
+	
+	/**
+	 * 
+	 * Removes an entity by moving the last entity into its place.
+	 * 
+	 * @param i the index of the entity to remove.
+	 * @return the id of the entity that was moved to the index, or -1 if it was the last one.
+	 */
+	int remove(int i) {
+		int last = --size;
+		int moved = -1;
+		
+		if(i != last) {
+			moved = entities[last];
+			entities[i] = moved;
+			
+			for(int c = 0; c < columns.length; c++)
+				columns[c][i] = columns[c][last];
+		}
+		
+		//Let go of the components
+		for(int c = 0; c < columns.length; c++)
+			columns[c][last] = null;
+		
+		return moved;
+	}
+	
+	/**
+	 * 
+	 * Removes all entities.
+	 * 
+	 */
+	void clear() {
+		for(int c = 0; c < columns.length; c++)
+			Arrays.fill(columns[c], 0, size, null);
+		
+		size = 0;
+	}
+}
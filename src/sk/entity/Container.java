@@ -2,11 +2,15 @@ package sk.entity;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Container extends Node {
 	
 	private ArrayList<Node> nodes;
 	
+	//The pool to update the parallel safe components on, null to update them in order
+	private ForkJoinPool pool = null;
+	
 	/**
 	 * 
 	 * Creates a new empty node container.
@@ -18,6 +22,11 @@ public class Container extends Node {
 	
 	@Override
 	public void update(double delta) {
+		if(pool != null) {
+			ParallelUpdate.update(nodes, pool, delta);
+			return;
+		}
+		
 		for(Node node : nodes)
 			node.update(delta);
 	}
@@ -112,6 +121,37 @@ public class Container extends Node {
 		return nodes.size();
 	}
 	
+	/**
+	 * 
+	 * Returns the pool the parallel safe components are updated on,
+	 * or {@code null} if everything is updated on the calling thread.
+	 * 
+	 * @return the pool.
+	 */
+	public ForkJoinPool getParallelPool() {
+		return pool;
+	}
+	
+	/**
+	 * 
+	 * Sets the pool to update the {@link ParallelSafe} components of the entities in this container on.
+	 * The entities are then updated together, one component priority at a time. The parallel safe
+	 * components with a priority are all run on the pool before the other components with the same
+	 * priority are run on the calling thread, in the order of the entities. This means that within a
+	 * priority, the parallel safe components of an entity always run before its other components,
+	 * even the ones that were added first. Use different priorities where that order matters. Nodes
+	 * that aren't entities, and entities that override {@link Entity#update(double)}, are still
+	 * updated on the calling thread, in order.
+	 * 
+	 * @param pool the pool to use, or {@code null} to update everything on the calling thread.
+	 * @return this container instance.
+	 */
+	public Container setParallelPool(ForkJoinPool pool) {
+		this.pool = pool;
+		
+		return this;
+	}
+	
 	@Override
 	public void destroy() {
 		for(Node n : nodes)
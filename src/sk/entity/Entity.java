@@ -1,6 +1,7 @@
 package sk.entity;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -9,6 +10,13 @@ public class Entity extends Node {
 	private TreeMap<Integer, ArrayList<Component>> components;
 	private ArrayList<Class<? extends Component>> trash;
 	
+	//The attached component and its priority for each type, see TypeIndex
+	private Component[] byType = new Component[0];
+	private int[] priorities = new int[0];
+	
+	//The number of attached components that are ParallelSafe
+	private int numParallel = 0;
+	
 	/**
 	 * 
 	 * Creates a new empty entity.
@@ -37,25 +45,69 @@ public class Entity extends Node {
 				c.draw();
 	}
 	
-	private void checkTrash() {
+	void checkTrash() {
 		if(trash.isEmpty())
 			return;
 		
 		for(int i = 0; i < trash.size(); i++) {
-			int p = getPriority(trash.get(i));
+			int type = TypeIndex.of(trash.get(i));
+			Component comp = get(trash.get(i));
 			
-			for(Component comp : components.get(p)) {
-				if(comp.getClass() == trash.get(i)) {
-					comp.removeParent();
-					components.get(p).remove(comp);
-					break;
-				}
-			}
+			//Removed twice in the same update
+			if(comp == null)
+				continue;
+			
+			comp.removeParent();
+			components.get(priorities[type]).remove(comp);
+			byType[type] = null;
+			
+			if(comp instanceof ParallelSafe)
+				numParallel--;
 		}
 		
 		trash.clear();
 	}
 	
+	/**
+	 * 
+	 * Checks whether or not any of the attached components are {@link ParallelSafe}.
+	 * 
+	 * @return {@code true} if there are parallel safe components.
+	 */
+	boolean hasParallelComponents() {
+		return numParallel != 0;
+	}
+	
+	/**
+	 * 
+	 * Returns the lowest priority of the attached components that is at least the specified one.
+	 * 
+	 * @param priority the priority to start from.
+	 * @return the priority, or {@code null} if there is none.
+	 */
+	Integer getPriorityFrom(int priority) {
+		return components.ceilingKey(priority);
+	}
+	
+	/**
+	 * 
+	 * Updates either the parallel safe or the other components with the specified priority.
+	 * 
+	 * @param priority the priority of the components.
+	 * @param parallel {@code true} to update the parallel safe components.
+	 * @param delta the time passed since the previous frame.
+	 */
+	void update(int priority, boolean parallel, double delta) {
+		ArrayList<Component> comps = components.get(priority);
+		
+		if(comps == null)
+			return;
+		
+		for(int i = 0; i < comps.size(); i++)
+			if((comps.get(i) instanceof ParallelSafe) == parallel)
+				comps.get(i).update(delta);
+	}
+	
 	/**
 	 * 
 	 * Checks whether or not a component of the specified type is attached to this entity.
@@ -64,12 +116,7 @@ public class Entity extends Node {
 	 * @return {@code true} if the component is attached.
 	 */
 	public <T extends Component> boolean has(Class<T> c) {
-		for(List<Component> comps : components.values())
-			for(Component comp : comps)
-				if(comp.getClass() == c)
-					return true;
-		
-		return false;
+		return get(c) != null;
 	}
 	
 	/**
@@ -128,6 +175,20 @@ public class Entity extends Node {
 		
 		components.get(priority).add(comp);
 		
+		int type = TypeIndex.of(comp.getClass());
+		
+		if(type >= byType.length) {
+			int length = Math.max(type + 1, byType.length * 2);
+			byType = Arrays.copyOf(byType, length);
+			priorities = Arrays.copyOf(priorities, length);
+		}
+		
+		byType[type] = comp;
+		priorities[type] = priority;
+		
+		if(comp instanceof ParallelSafe)
+			numParallel++;
+		
 		comp.setParent(this);
 		
 		comp.init();
@@ -144,12 +205,12 @@ public class Entity extends Node {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends Component> T get(Class<T> c) {
-		for(List<Component> comps : components.values())
-			for(Component comp : comps)
-				if(comp.getClass() == c)
-					return (T) comp;
+		int type = TypeIndex.of(c);
+		
+		if(type >= byType.length)
+			return null;
 		
-		return null;
+		return (T) byType[type];
 	}
 	
 	/**
@@ -176,13 +237,10 @@ public class Entity extends Node {
 	 * @return the priority of the component or {@code -1}.
 	 */
 	public int getPriority(Class<? extends Component> c) {
-		for(int i : components.keySet()) {
-			for(Component comp : getComponents(i))
-				if(comp.getClass() == c)
-					return i;
-		}
+		if(!has(c))
+			return -1;
 		
-		return -1;
+		return priorities[TypeIndex.of(c)];
 	}
 	
 	/**
@@ -217,6 +275,8 @@ public class Entity extends Node {
 		}
 		
 		components.clear();
+		Arrays.fill(byType, null);
+		numParallel = 0;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,565 @@
+package sk.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * 
+ * Keeps a large number of entities as plain ids, with their components
+ * stored by type instead of in an {@link Entity} each. Entities with the
+ * same component types share an {@link Archetype}, where each type has
+ * a dense array of components, and the work is done by
+ * {@link EntitySystem systems} running over those arrays in bulk. The
+ * store is a node, so it can be added to a {@link Root} like any other.
+ * 
+ * Any object can be a component, including the existing ones like
+ * {@code Transform}, {@code Body} and {@code Renderer}. The store does
+ * not call {@code init}, {@code update} or {@code draw} on them, and
+ * they have no parent entity, so references between them are set up
+ * by hand, for example with {@code Body.decouple(Transform)} or
+ * {@code Renderer.transform}.
+ * 
+ * <pre>
+ * EntityStore store = new EntityStore();
+ * Query moving = store.query(Transform.class, Velocity.class);
+ * 
+ * store.create(new Transform(), new Velocity(1, 0));
+ * store.addSystem((s, delta) -&gt; {
+ *     for(int i = 0; i &lt; moving.getNumOfArchetypes(); i++) {
+ *         ...
+ *     }
+ * });
+ * </pre>
+ * 
+ * Entities and components that are created, added or removed while the
+ * systems are updating are not moved until the current system is done,
+ * so the archetypes stay put while they are iterated over. An entity
+ * created by a system gets its id straight away, but has no components
+ * and isn't found by any query until then.
+ * 
+ */
+public class EntityStore extends Node {
+	
+	//Ids hold the index of the entity in the low bits, and the
+	//number of times the index has been reused in the high bits
+	private static final int INDEX_BITS = 24;
+	private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	private static final int MAX_GENERATION = 0x7F;
+	
+	private HashMap<BitSet, Archetype> archetypes = new HashMap<>();
+	private ArrayList<Archetype> archetypeList = new ArrayList<>();
+	private Archetype empty;
+	//Where entities created while a system is updating wait, it is never iterated over
+	private final Archetype pending = new Archetype(new Class<?>[0], new BitSet());
+	
+	//Where each entity is, null for the unused indices
+	private Archetype[] archetypeOf = new Archetype[64];
+	private int[] rowOf = new int[64];
+	private int[] generations = new int[64];
+	private int numIndices = 0;
+	private int[] free = new int[16];
+	private int numFree = 0;
+	private int numEntities = 0;
+	
+	private ArrayList<EntitySystem> systems = new ArrayList<>();
+	
+	//Changes made while a system is updating
+	private boolean updating = false;
+	private ArrayList<Change> changes = new ArrayList<>();
+	
+	/**
+	 * 
+	 * Creates a new empty store.
+	 * 
+	 */
+	public EntityStore() {
+		empty = archetype(new Class<?>[0], new BitSet());
+	}
+	
+	@Override
+	public void update(double delta) {
+		for(int i = 0; i < systems.size(); i++) {
+			updating = true;
+			
+			try {
+				systems.get(i).update(this, delta);
+			} finally {
+				updating = false;
+			}
+			
+			applyChanges();
+		}
+	}
+	
+	@Override
+	public void draw() {
+		for(int i = 0; i < systems.size(); i++)
+			systems.get(i).draw(this);
+	}
+	
+	/**
+	 * 
+	 * Adds a system to this store. Systems are updated and drawn in the order they are added.
+	 * 
+	 * @param system the system to add.
+	 * @return this store instance.
+	 */
+	public EntityStore addSystem(EntitySystem system) {
+		if(system == null)
+			throw new IllegalArgumentException("System passed to store is null");
+		
+		systems.add(system);
+		
+		return this;
+	}
+	
+	/**
+	 * 
+	 * Removes a system from this store.
+	 * 
+	 * @param system the system to remove.
+	 * @return this store instance.
+	 */
+	public EntityStore removeSystem(EntitySystem system) {
+		systems.remove(system);
+		
+		return this;
+	}
+	
+	/**
+	 * 
+	 * Creates a query for the entities that have all of the specified component types.
+	 * 
+	 * @param types the component types.
+	 * @return the query.
+	 */
+	public Query query(Class<?>... types) {
+		for(Class<?> type : types)
+			if(type == null)
+				throw new IllegalArgumentException("Type passed to store is null");
+		
+		return new Query(this, types);
+	}
+	
+	/**
+	 * 
+	 * Creates a new entity with the specified components.
+	 * 
+	 * @param components the components of the entity, at most one of each type.
+	 * @return the id of the entity.
+	 */
+	public int create(Object... components) {
+		Class<?>[] types = typesOf(components);
+		
+		int index;
+		
+		if(numFree != 0) {
+			index = free[--numFree];
+		} else {
+			index = numIndices++;
+			
+			if(index > INDEX_MASK)
+				throw new IllegalStateException("There are too many entities in this store");
+			
+			if(index == archetypeOf.length) {
+				archetypeOf = Arrays.copyOf(archetypeOf, index * 2);
+				rowOf = Arrays.copyOf(rowOf, index * 2);
+				generations = Arrays.copyOf(generations, index * 2);
+			}
+		}
+		
+		int entity = (generations[index] << INDEX_BITS) | index;
+		numEntities++;
+		
+		if(updating) {
+			//Kept out of the archetypes until the system is done
+			archetypeOf[index] = pending;
+			rowOf[index] = -1;
+			changes.add(new Change(entity, components.clone(), null));
+			
+			return entity;
+		}
+		
+		place(index, entity, components, types);
+		
+		return entity;
+	}
+	
+	private void place(int index, int entity, Object[] components, Class<?>[] types) {
+		BitSet mask = new BitSet();
+		
+		for(Class<?> type : types)
+			mask.set(TypeIndex.of(type));
+		
+		Archetype a = archetypes.get(mask);
+		
+		if(a == null)
+			a = archetype(types, mask);
+		
+		int row = a.add(entity);
+		archetypeOf[index] = a;
+		rowOf[index] = row;
+		
+		for(Object component : components)
+			a.set(a.column(TypeIndex.of(component.getClass())), row, component);
+	}
+	
+	/**
+	 * 
+	 * Checks whether or not the specified entity exists within this store.
+	 * 
+	 * @param entity the id of the entity.
+	 * @return {@code true} if the entity exists.
+	 */
+	public boolean has(int entity) {
+		int index = entity & INDEX_MASK;
+		
+		return index < numIndices && archetypeOf[index] != null
+				&& generations[index] == entity >>> INDEX_BITS;
+	}
+	
+	/**
+	 * 
+	 * Checks whether or not a component of the specified type is attached to the entity.
+	 * 
+	 * @param entity the id of the entity.
+	 * @param type the component type to check.
+	 * @return {@code true} if the component is attached.
+	 */
+	public boolean has(int entity, Class<?> type) {
+		return get(entity, type) != null;
+	}
+	
+	/**
+	 * 
+	 * Returns the component of the specified type, or {@code null} if no such component is present.
+	 * 
+	 * @param entity the id of the entity.
+	 * @param type the type of component to fetch.
+	 * @return the component, or {@code null} if it is not present.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(int entity, Class<T> type) {
+		int index = indexOf(entity);
+		Archetype a = archetypeOf[index];
+		int c = a.column(TypeIndex.of(type));
+		
+		if(c == -1)
+			return null;
+		
+		return (T) a.get(c, rowOf[index]);
+	}
+	
+	/**
+	 * 
+	 * Adds a component to the entity, replacing the component of the same type if there is one.
+	 * 
+	 * @param entity the id of the entity.
+	 * @param component the component to add.
+	 * @return this store instance.
+	 */
+	public EntityStore add(int entity, Object component) {
+		int index = indexOf(entity);
+		
+		if(component == null)
+			throw new IllegalArgumentException("Component passed to store is null");
+		
+		if(updating) {
+			changes.add(new Change(entity, new Object[] {component}, null));
+			return this;
+		}
+		
+		put(index, component);
+		
+		return this;
+	}
+	
+	/**
+	 * 
+	 * Removes the component of the specified type from the entity.
+	 * 
+	 * @param entity the id of the entity.
+	 * @param type the type of the component.
+	 * @return this store instance.
+	 */
+	public EntityStore remove(int entity, Class<?> type) {
+		int index = indexOf(entity);
+		
+		if(archetypeOf[index].column(TypeIndex.of(type)) == -1)
+			throw new IllegalArgumentException("The component \"" + type.getSimpleName()
+					+ "\" is not a part of this entity");
+		
+		if(updating) {
+			changes.add(new Change(entity, null, type));
+			return this;
+		}
+		
+		take(index, type);
+		
+		return this;
+	}
+	
+	/**
+	 * 
+	 * Removes the entity and all of its components from this store.
+	 * 
+	 * @param entity the id of the entity.
+	 * @return this store instance.
+	 */
+	public EntityStore remove(int entity) {
+		int index = indexOf(entity);
+		
+		if(updating) {
+			changes.add(new Change(entity, null, null));
+			return this;
+		}
+		
+		kill(index);
+		
+		return this;
+	}
+	
+	/**
+	 * 
+	 * Returns the number of entities in this store.
+	 * 
+	 * @return the number of entities.
+	 */
+	public int getNumOfEntities() {
+		return numEntities;
+	}
+	
+	/**
+	 * 
+	 * Returns the number of archetypes in this store. Archetypes
+	 * are kept once they have been made, even when they are empty.
+	 * 
+	 * @return the number of archetypes.
+	 */
+	public int getNumOfArchetypes() {
+		return archetypeList.size();
+	}
+	
+	/**
+	 * 
+	 * Returns the archetype at the specified index.
+	 * 
+	 * @param i the index.
+	 * @return the archetype.
+	 */
+	public Archetype getArchetype(int i) {
+		return archetypeList.get(i);
+	}
+	
+	/**
+	 * 
+	 * Removes all entities and systems from this store.
+	 * 
+	 */
+	@Override
+	public void destroy() {
+		for(int i = 0; i < numIndices; i++) {
+			if(archetypeOf[i] != null) {
+				archetypeOf[i] = null;
+				generations[i] = (generations[i] + 1) & MAX_GENERATION;
+			}
+		}
+		
+		//The archetypes are kept so queries stay valid
+		for(Archetype a : archetypeList)
+			a.clear();
+		
+		numIndices = 0;
+		numFree = 0;
+		numEntities = 0;
+		changes.clear();
+		systems.clear();
+	}
+	
+	private int indexOf(int entity) {
+		if(!has(entity))
+			throw new IllegalArgumentException("There is no entity with the id \""
+					+ entity + "\" in this store");
+		
+		return entity & INDEX_MASK;
+	}
+	
+	private Class<?>[] typesOf(Object[] components) {
+		Class<?>[] types = new Class<?>[components.length];
+		
+		for(int i = 0; i < components.length; i++) {
+			if(components[i] == null)
+				throw new IllegalArgumentException("Component passed to store is null");
+			
+			Class<?> type = components[i].getClass();
+			int j = i - 1;
+			
+			//Sort by the type index, like the archetypes
+			while(j >= 0 && TypeIndex.of(type) < TypeIndex.of(types[j])) {
+				types[j + 1] = types[j];
+				j--;
+			}
+			
+			if(j >= 0 && types[j] == type)
+				throw new IllegalArgumentException("The component ("
+						+ type.getSimpleName() + ") is supplied more than once");
+			
+			types[j + 1] = type;
+		}
+		
+		return types;
+	}
+	
+	private Archetype archetype(Class<?>[] types, BitSet mask) {
+		Archetype a = new Archetype(types, mask);
+		archetypes.put(mask, a);
+		archetypeList.add(a);
+		
+		return a;
+	}
+	
+	private void put(int index, Object component) {
+		Archetype from = archetypeOf[index];
+		Class<?> type = component.getClass();
+		int t = TypeIndex.of(type);
+		int c = from.column(t);
+		
+		if(c != -1) {
+			from.set(c, rowOf[index], component);
+			return;
+		}
+		
+		BitSet mask = (BitSet) from.mask.clone();
+		mask.set(t);
+		
+		Archetype to = archetypes.get(mask);
+		
+		if(to == null) {
+			Class<?>[] types = Arrays.copyOf(from.types(), from.types().length + 1);
+			int i = types.length - 1;
+			
+			while(i > 0 && t < TypeIndex.of(types[i - 1])) {
+				types[i] = types[i - 1];
+				i--;
+			}
+			
+			types[i] = type;
+			to = archetype(types, mask);
+		}
+		
+		move(index, to);
+		to.set(to.column(t), rowOf[index], component);
+	}
+	
+	private void take(int index, Class<?> type) {
+		Archetype from = archetypeOf[index];
+		int t = TypeIndex.of(type);
+		int c = from.column(t);
+		
+		if(c == -1)
+			return;
+		
+		BitSet mask = (BitSet) from.mask.clone();
+		mask.clear(t);
+		
+		Archetype to = archetypes.get(mask);
+		
+		if(to == null) {
+			Class<?>[] types = new Class<?>[from.types().length - 1];
+			
+			for(int i = 0, j = 0; i < from.types().length; i++)
+				if(i != c)
+					types[j++] = from.types()[i];
+			
+			to = archetype(types, mask);
+		}
+		
+		move(index, to);
+	}
+	
+	private void move(int index, Archetype to) {
+		Archetype from = archetypeOf[index];
+		int row = rowOf[index];
+		int newRow = to.add(from.getEntity(row));
+		Class<?>[] types = from.types();
+		
+		//The columns are in the same order as the types
+		for(int i = 0; i < types.length; i++) {
+			int c = to.column(TypeIndex.of(types[i]));
+			
+			if(c != -1)
+				to.set(c, newRow, from.get(i, row));
+		}
+		
+		removeRow(from, row);
+		archetypeOf[index] = to;
+		rowOf[index] = newRow;
+	}
+	
+	private void kill(int index) {
+		removeRow(archetypeOf[index], rowOf[index]);
+		archetypeOf[index] = null;
+		generations[index] = (generations[index] + 1) & MAX_GENERATION;
+		
+		if(numFree == free.length)
+			free = Arrays.copyOf(free, numFree * 2);
+		
+		free[numFree++] = index;
+		numEntities--;
+	}
+	
+	private void removeRow(Archetype a, int row) {
+		int moved = a.remove(row);
+		
+		if(moved != -1)
+			rowOf[moved & INDEX_MASK] = row;
+	}
+	
+	private void applyChanges() {
+		for(int i = 0; i < changes.size(); i++) {
+			Change change = changes.get(i);
+			
+			//Removed earlier by the same system
+			if(!has(change.entity))
+				continue;
+			
+			int index = change.entity & INDEX_MASK;
+			
+			if(archetypeOf[index] == pending) {
+				//Created by the system
+				place(index, change.entity, change.components, typesOf(change.components));
+			} else if(change.components != null) {
+				for(Object component : change.components)
+					put(index, component);
+			} else if(change.type != null) {
+				take(index, change.type);
+			} else {
+				kill(index);
+			}
+		}
+		
+		changes.clear();
+	}
+	
+	/**
+	 * 
+	 * A change that waits for the current system to be done. Entities that are waiting
+	 * are created with the components, otherwise components are added, otherwise the
+	 * component of the type is removed, otherwise the entity is removed.
+	 * 
+	 */
+	private static class Change {
+		
+		private final int entity;
+		private final Object[] components;
+		private final Class<?> type;
+		
+		Change(int entity, Object[] components, Class<?> type) {
+			this.entity = entity;
+			this.components = components;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package sk.entity;
+
+/**
+ * 
+ * Does the work for all entities of an {@link EntityStore} that have
+ * some set of components, usually found with a {@link Query}.
+ * 
+ */
+public interface EntitySystem {
+	
+	/**
+	 * 
+	 * This method is called when the store is updated.
+	 * 
+	 * @param store the store that is updated.
+	 * @param delta the time passed since the previous frame.
+	 */
+	public void update(EntityStore store, double delta);
+	
+	/**
+	 * 
+	 * This method is called when the store is drawn.
+	 * 
+	 * @param store the store that is drawn.
+	 */
+	public default void draw(EntityStore store) {}
+}
@@ -0,0 +1,14 @@
+package sk.entity;
+
+/**
+ * 
+ * Marks a component whose update only touches its own entity, like
+ * an animation timer or steering, so the components of different
+ * entities can be updated at the same time. Only the update is run
+ * in parallel, drawing is always done on the calling thread.
+ * 
+ * @see Root#setParallelPool(java.util.concurrent.ForkJoinPool)
+ * @see Container#setParallelPool(java.util.concurrent.ForkJoinPool)
+ * 
+ */
+public interface ParallelSafe {}
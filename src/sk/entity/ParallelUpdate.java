@@ -0,0 +1,153 @@
+package sk.entity;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 
+ * Updates a list of nodes with the {@link ParallelSafe} components of
+ * the entities run on a pool. Entities next to each other in the list
+ * are updated together, one component priority at a time. For each
+ * priority the parallel safe components of all the entities are run
+ * on the pool first, and once they are all done the other components
+ * are run on the calling thread, entity by entity. So within a priority
+ * the parallel safe components of an entity run before its other
+ * components, whatever order they were added in. Nodes that aren't
+ * entities, and entities that override {@link Entity#update(double)},
+ * are updated on the calling thread, in their place in the list.
+ * 
+ */
+final class ParallelUpdate {
+	
+	//The smallest number of entities worth a task of its own
+	private static final int CHUNK_SIZE = 16;
+	
+	//If the entities of a class can be updated a priority at a time,
+	//which they can't if the class has its own way of updating
+	private static final ClassValue<Boolean> banded = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			if(!Entity.class.isAssignableFrom(type))
+				return false;
+			
+			try {
+				Method update = type.getMethod("update", double.class);
+				return update.getDeclaringClass() == Entity.class;
+			} catch(NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+	
+	private ParallelUpdate() {}
+	
+	/**
+	 * 
+	 * Updates the nodes.
+	 * 
+	 * @param nodes the nodes, in the order they should be updated.
+	 * @param pool the pool to run the parallel safe components on.
+	 * @param delta the time passed since the previous frame.
+	 */
+	static void update(List<Node> nodes, ForkJoinPool pool, double delta) {
+		int i = 0;
+		
+		while(i < nodes.size()) {
+			if(!banded.get(nodes.get(i).getClass())) {
+				nodes.get(i++).update(delta);
+				continue;
+			}
+			
+			int end = i + 1;
+			boolean parallel = ((Entity) nodes.get(i)).hasParallelComponents();
+			
+			while(end < nodes.size() && banded.get(nodes.get(end).getClass())) {
+				parallel |= ((Entity) nodes.get(end)).hasParallelComponents();
+				end++;
+			}
+			
+			if(parallel) {
+				update(nodes, i, end, pool, delta);
+			} else {
+				for(int j = i; j < end; j++)
+					nodes.get(j).update(delta);
+			}
+			
+			i = end;
+		}
+	}
+	
+	private static void update(List<Node> nodes, int from, int to, ForkJoinPool pool, double delta) {
+		for(int i = from; i < to; i++)
+			((Entity) nodes.get(i)).checkTrash();
+		
+		Integer priority = lowestPriority(nodes, from, to, Integer.MIN_VALUE);
+		
+		while(priority != null) {
+			pool.invoke(new Task(nodes, from, to, priority, delta));
+			
+			for(int i = from; i < to; i++)
+				((Entity) nodes.get(i)).update(priority, false, delta);
+			
+			if(priority == Integer.MAX_VALUE)
+				break;
+			
+			priority = lowestPriority(nodes, from, to, priority + 1);
+		}
+		
+		for(int i = from; i < to; i++)
+			((Entity) nodes.get(i)).checkTrash();
+	}
+	
+	private static Integer lowestPriority(List<Node> nodes, int from, int to, int priority) {
+		Integer lowest = null;
+		
+		for(int i = from; i < to; i++) {
+			Integer p = ((Entity) nodes.get(i)).getPriorityFrom(priority);
+			
+			if(p != null && (lowest == null || p < lowest))
+				lowest = p;
+		}
+		
+		return lowest;
+	}
+	
+	/**
+	 * 
+	 * Splits the entities over the pool, and updates the
+	 * parallel safe components with one priority.
+	 * 
+	 */
+	@SuppressWarnings("serial")
+	private static class Task extends RecursiveAction {
+		
+		private final List<Node> nodes;
+		private final int from, to;
+		private final int priority;
+		private final double delta;
+		
+		Task(List<Node> nodes, int from, int to, int priority, double delta) {
+			this.nodes = nodes;
+			this.from = from;
+			this.to = to;
+			this.priority = priority;
+			this.delta = delta;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from <= CHUNK_SIZE) {
+				for(int i = from; i < to; i++)
+					((Entity) nodes.get(i)).update(priority, true, delta);
+				
+				return;
+			}
+			
+			int mid = (from + to) >>> 1;
+			invokeAll(new Task(nodes, from, mid, priority, delta),
+					new Task(nodes, mid, to, priority, delta));
+		}
+	}
+}
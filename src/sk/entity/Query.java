@@ -0,0 +1,100 @@
+package sk.entity;
+
+import java.util.ArrayList;
+
+/**
+ * 
+ * Finds the archetypes of an {@link EntityStore} whose entities have
+ * all of a set of component types. Archetypes that are made after the
+ * query are found as well, so a system can keep its queries.
+ * 
+ * <pre>
+ * for(int i = 0; i &lt; query.getNumOfArchetypes(); i++) {
+ *     Archetype a = query.getArchetype(i);
+ *     Transform[] transforms = a.getColumn(Transform.class);
+ *     Velocity[] velocities = a.getColumn(Velocity.class);
+ * 
+ *     for(int j = 0; j &lt; a.size(); j++)
+ *         transforms[j].position.x += velocities[j].x * delta;
+ * }
+ * </pre>
+ * 
+ */
+public final class Query {
+	
+	private final EntityStore store;
+	private final int[] types;
+	
+	private ArrayList<Archetype> archetypes = new ArrayList<>();
+	//The number of archetypes of the store that have been checked
+	private int checked = 0;
+	
+	Query(EntityStore store, Class<?>[] types) {
+		this.store = store;
+		this.types = new int[types.length];
+		
+		for(int i = 0; i < types.length; i++)
+			this.types[i] = TypeIndex.of(types[i]);
+	}
+	
+	private void refresh() {
+		int numArchetypes = store.getNumOfArchetypes();
+		
+		for(; checked < numArchetypes; checked++) {
+			Archetype a = store.getArchetype(checked);
+			
+			if(matches(a))
+				archetypes.add(a);
+		}
+	}
+	
+	private boolean matches(Archetype a) {
+		for(int type : types)
+			if(!a.mask.get(type))
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * 
+	 * Returns the number of archetypes that have all of the component types.
+	 * 
+	 * @return the number of archetypes.
+	 */
+	public int getNumOfArchetypes() {
+		refresh();
+		
+		return archetypes.size();
+	}
+	
+	/**
+	 * 
+	 * Returns the archetype at the specified index.
+	 * 
+	 * @param i the index.
+	 * @return the archetype.
+	 */
+	public Archetype getArchetype(int i) {
+		refresh();
+		
+		return archetypes.get(i);
+	}
+	
+	/**
+	 * 
+	 * Returns the number of entities that have all of the component types.
+	 * 
+	 * @return the number of entities.
+	 */
+	public int getNumOfEntities() {
+		refresh();
+		
+		int n = 0;
+		
+		for(int i = 0; i < archetypes.size(); i++)
+			n += archetypes.get(i).size();
+		
+		return n;
+	}
+}
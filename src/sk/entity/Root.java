@@ -1,14 +1,25 @@
 package sk.entity;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class Root extends Node {
 	
-	private TreeMap<Integer, List<String>> priorities;
+	private TreeMap<Integer, LinkedHashMap<String, Node>> priorities;
 	private HashMap<String, Node> nodes;
+	private HashMap<String, Integer> priorityOf;
+	
+	//All nodes in the order they are updated, rebuilt when nodes are added or removed
+	private Node[] order;
+	private boolean changed;
+	
+	//The pool to update the parallel safe components on, null to update them in order
+	private ForkJoinPool pool = null;
 	
 	/**
 	 * 
@@ -18,20 +29,41 @@ public class Root extends Node {
 	public Root() {
 		priorities = new TreeMap<>();
 		nodes = new HashMap<>();
+		priorityOf = new HashMap<>();
+		order = new Node[0];
 	}
 	
 	@Override
 	public void update(double delta) {
-		for(List<String> keys : priorities.values())
-			for(String key : keys)
-				nodes.get(key).update(delta);
+		//Nodes added or removed during the update are picked up next frame
+		if(pool != null) {
+			ParallelUpdate.update(Arrays.asList(getOrder()), pool, delta);
+			return;
+		}
+		
+		for(Node node : getOrder())
+			node.update(delta);
 	}
 	
 	@Override
 	public void draw() {
-		for(List<String> keys : priorities.values())
-			for(String key : keys)
-				nodes.get(key).draw();
+		for(Node node : getOrder())
+			node.draw();
+	}
+	
+	private Node[] getOrder() {
+		if(changed) {
+			order = new Node[nodes.size()];
+			int i = 0;
+			
+			for(LinkedHashMap<String, Node> bucket : priorities.values())
+				for(Node node : bucket.values())
+					order[i++] = node;
+			
+			changed = false;
+		}
+		
+		return order;
 	}
 	
 	/**
@@ -49,10 +81,12 @@ public class Root extends Node {
 					+ key + "\" already exists in this root");
 		
 		if(priorities.get(priority) == null)
-			priorities.put(priority, new ArrayList<String>());
+			priorities.put(priority, new LinkedHashMap<String, Node>());
 		
-		priorities.get(priority).add(key);
+		priorities.get(priority).put(key, node);
 		nodes.put(key, node);
+		priorityOf.put(key, priority);
+		changed = true;
 		
 		return this;
 	}
@@ -87,12 +121,13 @@ public class Root extends Node {
 	 * @return the priority of the node.
 	 */
 	public int getPriority(String key) {
-		for(int i : priorities.keySet())
-			if(priorities.get(i).contains(key))
-				return i;
+		Integer priority = priorityOf.get(key);
 		
-		throw new IllegalArgumentException("There is no node with the key \""
-				+ key + "\" in this root");
+		if(priority == null)
+			throw new IllegalArgumentException("There is no node with the key \""
+					+ key + "\" in this root");
+		
+		return priority;
 	}
 	
 	/**
@@ -110,7 +145,7 @@ public class Root extends Node {
 				throw new IllegalArgumentException("There is no node with the priority \""
 						+ i + "\" in this root");
 			
-			for(String key : this.priorities.get(i))
+			for(String key : this.priorities.get(i).keySet())
 				keys.add(key);
 		}
 		
@@ -132,8 +167,8 @@ public class Root extends Node {
 				throw new IllegalArgumentException("There is no node with the priority \""
 						+ i + "\" in this root");
 			
-			for(String key : this.priorities.get(i))
-				nodes.add(this.nodes.get(key));
+			for(Node node : this.priorities.get(i).values())
+				nodes.add(node);
 		}
 		
 		return nodes;
@@ -177,19 +212,17 @@ public class Root extends Node {
 	 * @return this root instance.
 	 */
 	public Root remove(String key) {
-		for(int i = 0; i < priorities.size(); i++) {
-			List<String> list = priorities.get(i);
-			for(int j = 0; j < list.size(); j++) {
-				if(list.get(j).equals(key)) {
-					priorities.get(i).remove(j);
-					nodes.remove(key);
-					return this;
-				}
-			}
-		}
+		Integer priority = priorityOf.remove(key);
 		
-		throw new IllegalArgumentException("There is no node with the key \""
-				+ key + "\" in this root");
+		if(priority == null)
+			throw new IllegalArgumentException("There is no node with the key \""
+					+ key + "\" in this root");
+		
+		priorities.get(priority).remove(key);
+		nodes.remove(key);
+		changed = true;
+		
+		return this;
 	}
 	
 	/**
@@ -204,14 +237,47 @@ public class Root extends Node {
 	
 	@Override
 	public void destroy() {
-		for(List<String> keys : priorities.values())
-			for(String key : keys)
-				nodes.get(key).destroy();
+		for(Node node : getOrder())
+			node.destroy();
 		
 		priorities.clear();
 		nodes.clear();
+		priorityOf.clear();
+		order = new Node[0];
+		changed = false;
 	}
 
+	/**
+	 * 
+	 * Returns the pool the parallel safe components are updated on,
+	 * or {@code null} if everything is updated on the calling thread.
+	 * 
+	 * @return the pool.
+	 */
+	public ForkJoinPool getParallelPool() {
+		return pool;
+	}
+	
+	/**
+	 * 
+	 * Sets the pool to update the {@link ParallelSafe} components of the entities in this root on.
+	 * The entities are then updated together, one component priority at a time. The parallel safe
+	 * components with a priority are all run on the pool before the other components with the same
+	 * priority are run on the calling thread, in the order of the entities. This means that within a
+	 * priority, the parallel safe components of an entity always run before its other components,
+	 * even the ones that were added first. Use different priorities where that order matters. Nodes
+	 * that aren't entities, and entities that override {@link Entity#update(double)}, are still
+	 * updated on the calling thread, in order.
+	 * 
+	 * @param pool the pool to use, or {@code null} to update everything on the calling thread.
+	 * @return this root instance.
+	 */
+	public Root setParallelPool(ForkJoinPool pool) {
+		this.pool = pool;
+		
+		return this;
+	}
+	
 	/**
 	 * Calls a get, but automatically casts it to an entity
 	 * @param string the name of the entity
@@ -0,0 +1,34 @@
+package sk.entity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 
+ * Gives every component type a small number, so components can be
+ * looked up by type with an array instead of a search.
+ * 
+ */
+final class TypeIndex {
+	
+	private static final AtomicInteger numTypes = new AtomicInteger();
+	private static final ClassValue<Integer> index = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			return numTypes.getAndIncrement();
+		}
+	};
+	
+	private TypeIndex() {}
+	
+	/**
+	 * 
+	 * Returns the number of the specified type. The first type asked
+	 * for gets 0, the next 1 and so on.
+	 * 
+	 * @param type the type.
+	 * @return the number of the type.
+	 */
+	static int of(Class<?> type) {
+		return index.get(type);
+	}
+}
@@ -0,0 +1,535 @@
+package sk.physics;
+
+import java.util.HashMap;
+
+/**
+ * A dynamic bounding volume hierarchy of axis aligned
+ * bounding boxes. Each body is a leaf in the tree, and
+ * every other node encloses both of its children.
+ *
+ * The leaves store fattened boxes, so a body can move
+ * a little without the tree being touched at all. When
+ * a body leaves its fattened box it is reinserted, and
+ * the ancestors are refitted and rotated on the way up
+ * to keep the tree balanced.
+ *
+ * Unlike a {@link UniformGrid}, the tree doesn't care
+ * about the size of the bodies, which makes it a good
+ * fit for worlds that mix huge static colliders with
+ * a lot of small dynamic ones.
+ *
+ */
+public class AABBTree implements Broadphase {
+
+	private static final int NULL = -1;
+	private static final float DEFAULT_MARGIN = 0.1f;
+
+	// How much the leaves are fattened in each direction
+	private float margin;
+
+	// The nodes are kept in flat arrays, indexed by node id
+	private float[] minX, minY, maxX, maxY;
+	private int[] parent, left, right, height, order;
+	private Body[] bodies;
+	private int capacity = 0;
+	private int freeList = NULL;
+	private int root = NULL;
+	private int nextOrder = 0;
+
+	private HashMap<Body, Integer> leaves = new HashMap<>();
+	private int[] leafList = new int[16];
+	private int numLeaves = 0;
+
+	// Used when traversing the tree, so that no allocations are made
+	private int[] stack = new int[64];
+
+	/**
+	 * Creates a new tree with the default margin.
+	 */
+	public AABBTree() {
+		this(DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Creates a new tree where the leaves are fattened
+	 * by the specified margin.
+	 *
+	 * @param margin the distance to fatten the leaves by in each direction.
+	 * @throws IllegalArgumentException if the margin is negative.
+	 */
+	public AABBTree(float margin) {
+		setMargin(margin);
+		grow(16);
+	}
+
+	/**
+	 * Returns the distance the leaves are fattened by.
+	 *
+	 * @return the margin.
+	 */
+	public float getMargin() {
+		return margin;
+	}
+
+	/**
+	 * Sets the distance the leaves are fattened by. A larger margin
+	 * means fewer reinsertions, but more false positives.
+	 *
+	 * @param margin the new margin.
+	 * @throws IllegalArgumentException if the margin is negative.
+	 */
+	public void setMargin(float margin) {
+		if (margin < 0.0f) {
+			throw new IllegalArgumentException("Negative margin supplied.");
+		}
+		this.margin = margin;
+	}
+
+	/**
+	 * Returns the height of the tree. A balanced tree has
+	 * a height close to the 2 logarithm of the number of bodies.
+	 *
+	 * @return the height of the tree.
+	 */
+	public int getHeight() {
+		return root == NULL ? 0 : height[root];
+	}
+
+	@Override
+	public void add(Body body) {
+		if (leaves.containsKey(body)) return;
+		int leaf = allocate();
+		bodies[leaf] = body;
+		order[leaf] = nextOrder++;
+		// Not placed in the tree until it has bounds
+		parent[leaf] = NULL;
+		height[leaf] = NULL;
+		leaves.put(body, leaf);
+
+		if (numLeaves == leafList.length) {
+			int[] grown = new int[numLeaves * 2];
+			System.arraycopy(leafList, 0, grown, 0, numLeaves);
+			leafList = grown;
+		}
+		leafList[numLeaves++] = leaf;
+	}
+
+	@Override
+	public void remove(Body body) {
+		Integer leaf = leaves.remove(body);
+		if (leaf == null) return;
+		if (height[leaf] != NULL) {
+			removeLeaf(leaf);
+		}
+		for (int i = 0; i < numLeaves; i++) {
+			if (leafList[i] == leaf) {
+				System.arraycopy(leafList, i + 1, leafList, i, numLeaves - i - 1);
+				numLeaves--;
+				break;
+			}
+		}
+		bodies[leaf] = null;
+		release(leaf);
+	}
+
+	@Override
+	public void update() {
+		for (int i = 0; i < numLeaves; i++) {
+			int leaf = leafList[i];
+			Body b = bodies[leaf];
+			b.updateCache();
+
+			boolean inTree = height[leaf] != NULL;
+
+			// Bodies without shapes aren't kept in the tree
+			if (b.maxX < b.minX) {
+				if (inTree) {
+					removeLeaf(leaf);
+					height[leaf] = NULL;
+				}
+				continue;
+			}
+
+			// Still inside the fat box, nothing to do
+			if (inTree &&
+					minX[leaf] <= b.minX && minY[leaf] <= b.minY &&
+					b.maxX <= maxX[leaf] && b.maxY <= maxY[leaf]) {
+				continue;
+			}
+
+			if (inTree) {
+				removeLeaf(leaf);
+			}
+			minX[leaf] = b.minX - margin;
+			minY[leaf] = b.minY - margin;
+			maxX[leaf] = b.maxX + margin;
+			maxY[leaf] = b.maxY + margin;
+			height[leaf] = 0;
+			insertLeaf(leaf);
+		}
+	}
+
+	@Override
+	public void findPairs(PairCallback callback) {
+		if (root == NULL) return;
+		for (int i = 0; i < numLeaves; i++) {
+			int leaf = leafList[i];
+			if (height[leaf] == NULL) continue;
+			Body a = bodies[leaf];
+
+			int top = 0;
+			stack[top++] = root;
+			while (top != 0) {
+				int node = stack[--top];
+				if (maxX[node] < a.minX || a.maxX < minX[node] ||
+					maxY[node] < a.minY || a.maxY < minY[node]) continue;
+
+				if (height[node] == 0) {
+					// Every pair is found from both sides, only report one
+					if (order[node] >= order[leaf]) continue;
+					Body b = bodies[node];
+					if (!Body.layersCollide(a, b)) {
+						callback.layerRejected(a, b);
+						continue;
+					}
+					if (a.maxX < b.minX || b.maxX < a.minX ||
+						a.maxY < b.minY || b.maxY < a.minY) continue;
+					callback.pair(a, b);
+				} else {
+					top = push(top, node);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void query(float qMinX, float qMinY, float qMaxX, float qMaxY, QueryCallback callback) {
+		if (root == NULL) return;
+		int top = 0;
+		stack[top++] = root;
+		while (top != 0) {
+			int node = stack[--top];
+			if (maxX[node] < qMinX || qMaxX < minX[node] ||
+				maxY[node] < qMinY || qMaxY < minY[node]) continue;
+
+			if (height[node] == 0) {
+				Body b = bodies[node];
+				if (b.maxX < qMinX || qMaxX < b.minX ||
+					b.maxY < qMinY || qMaxY < b.minY) continue;
+				callback.found(b);
+			} else {
+				top = push(top, node);
+			}
+		}
+	}
+
+	@Override
+	public void raycast(float x0, float y0, float x1, float y1, QueryCallback callback) {
+		if (root == NULL) return;
+		int top = 0;
+		stack[top++] = root;
+		while (top != 0) {
+			int node = stack[--top];
+			if (!Body.crosses(x0, y0, x1, y1,
+					minX[node], minY[node], maxX[node], maxY[node])) continue;
+
+			if (height[node] == 0) {
+				Body b = bodies[node];
+				if (!Body.crosses(x0, y0, x1, y1, b.minX, b.minY, b.maxX, b.maxY)) continue;
+				callback.found(b);
+			} else {
+				top = push(top, node);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the children of the node on the stack.
+	 *
+	 * @return the new top of the stack.
+	 */
+	private int push(int top, int node) {
+		if (stack.length < top + 2) {
+			int[] grown = new int[stack.length * 2];
+			System.arraycopy(stack, 0, grown, 0, top);
+			stack = grown;
+		}
+		stack[top++] = left[node];
+		stack[top++] = right[node];
+		return top;
+	}
+
+	/**
+	 * Rebuilds the whole tree from scratch. The tree stays
+	 * balanced as bodies move, but the boxes of the inner
+	 * nodes may grow loose over time. This is a good idea
+	 * to call after a level has been loaded.
+	 */
+	public void rebuild() {
+		// Tear down all inner nodes
+		for (int i = 0; i < numLeaves; i++) {
+			int leaf = leafList[i];
+			if (height[leaf] != NULL) {
+				removeLeaf(leaf);
+				height[leaf] = NULL;
+			}
+		}
+		update();
+	}
+
+	/**
+	 * Places a leaf, that already has its box, in the tree.
+	 */
+	private void insertLeaf(int leaf) {
+		if (root == NULL) {
+			root = leaf;
+			parent[leaf] = NULL;
+			return;
+		}
+
+		// Find the best sibling, by walking down the side
+		// that costs the least to enlarge
+		float lMinX = minX[leaf], lMinY = minY[leaf];
+		float lMaxX = maxX[leaf], lMaxY = maxY[leaf];
+		int sibling = root;
+		while (height[sibling] != 0) {
+			int l = left[sibling];
+			int r = right[sibling];
+
+			float area = perimeter(minX[sibling], minY[sibling], maxX[sibling], maxY[sibling]);
+			float combined = perimeter(
+					Math.min(minX[sibling], lMinX), Math.min(minY[sibling], lMinY),
+					Math.max(maxX[sibling], lMaxX), Math.max(maxY[sibling], lMaxY));
+
+			// Cost of making a new parent here
+			float cost = 2.0f * combined;
+			// Minimum cost of pushing the leaf further down
+			float inheritance = 2.0f * (combined - area);
+
+			float costLeft = descendCost(l, lMinX, lMinY, lMaxX, lMaxY) + inheritance;
+			float costRight = descendCost(r, lMinX, lMinY, lMaxX, lMaxY) + inheritance;
+
+			if (cost < costLeft && cost < costRight) break;
+			sibling = costLeft < costRight ? l : r;
+		}
+
+		// Make a new parent for the leaf and the sibling
+		int oldParent = parent[sibling];
+		int newParent = allocate();
+		parent[newParent] = oldParent;
+		bodies[newParent] = null;
+		left[newParent] = sibling;
+		right[newParent] = leaf;
+		parent[sibling] = newParent;
+		parent[leaf] = newParent;
+
+		if (oldParent == NULL) {
+			root = newParent;
+		} else if (left[oldParent] == sibling) {
+			left[oldParent] = newParent;
+		} else {
+			right[oldParent] = newParent;
+		}
+
+		refit(newParent);
+	}
+
+	/**
+	 * The cost of inserting the box below the specified node.
+	 */
+	private float descendCost(int node, float lMinX, float lMinY, float lMaxX, float lMaxY) {
+		float combined = perimeter(
+				Math.min(minX[node], lMinX), Math.min(minY[node], lMinY),
+				Math.max(maxX[node], lMaxX), Math.max(maxY[node], lMaxY));
+		if (height[node] == 0) {
+			return combined;
+		}
+		return combined - perimeter(minX[node], minY[node], maxX[node], maxY[node]);
+	}
+
+	/**
+	 * Takes a leaf out of the tree, its parent is released.
+	 */
+	private void removeLeaf(int leaf) {
+		if (leaf == root) {
+			root = NULL;
+			return;
+		}
+
+		int p = parent[leaf];
+		int grandParent = parent[p];
+		int sibling = left[p] == leaf ? right[p] : left[p];
+
+		if (grandParent == NULL) {
+			root = sibling;
+			parent[sibling] = NULL;
+		} else {
+			if (left[grandParent] == p) {
+				left[grandParent] = sibling;
+			} else {
+				right[grandParent] = sibling;
+			}
+			parent[sibling] = grandParent;
+		}
+		release(p);
+		parent[leaf] = NULL;
+		refit(grandParent);
+	}
+
+	/**
+	 * Walks up the tree from the specified node, refitting
+	 * and balancing each node on the way.
+	 */
+	private void refit(int node) {
+		while (node != NULL) {
+			fit(node);
+			node = balance(node);
+			node = parent[node];
+		}
+	}
+
+	/**
+	 * Recalculates the box and height of an inner node from its children.
+	 */
+	private void fit(int node) {
+		int l = left[node];
+		int r = right[node];
+		minX[node] = Math.min(minX[l], minX[r]);
+		minY[node] = Math.min(minY[l], minY[r]);
+		maxX[node] = Math.max(maxX[l], maxX[r]);
+		maxY[node] = Math.max(maxY[l], maxY[r]);
+		height[node] = 1 + Math.max(height[l], height[r]);
+	}
+
+	/**
+	 * Rotates the subtree if one side is more than one level
+	 * deeper than the other.
+	 *
+	 * @return the node now in the place of the supplied node.
+	 */
+	private int balance(int a) {
+		if (height[a] < 2) return a;
+
+		int b = left[a];
+		int c = right[a];
+		int diff = height[c] - height[b];
+
+		if (diff > 1) {
+			return rotate(a, c, b);
+		}
+		if (diff < -1) {
+			return rotate(a, b, c);
+		}
+		return a;
+	}
+
+	/**
+	 * Lifts the deep child up above its parent.
+	 *
+	 * @param a the unbalanced node.
+	 * @param deep the child of a that is too deep.
+	 * @param shallow the other child of a.
+	 * @return the deep child, now in the place of a.
+	 */
+	private int rotate(int a, int deep, int shallow) {
+		int f = left[deep];
+		int g = right[deep];
+
+		// The deep child takes the place of a
+		parent[deep] = parent[a];
+		parent[a] = deep;
+		if (parent[deep] == NULL) {
+			root = deep;
+		} else if (left[parent[deep]] == a) {
+			left[parent[deep]] = deep;
+		} else {
+			right[parent[deep]] = deep;
+		}
+
+		// Keep the deepest grandchild in the lifted node
+		int keep = height[f] > height[g] ? f : g;
+		int give = keep == f ? g : f;
+
+		left[deep] = a;
+		right[deep] = keep;
+		if (left[a] == deep) {
+			left[a] = give;
+		} else {
+			right[a] = give;
+		}
+		parent[give] = a;
+
+		fit(a);
+		fit(deep);
+		return deep;
+	}
+
+	private static float perimeter(float x0, float y0, float x1, float y1) {
+		return 2.0f * ((x1 - x0) + (y1 - y0));
+	}
+
+	/**
+	 * Takes a node from the free list, growing the pool if needed.
+	 */
+	private int allocate() {
+		if (freeList == NULL) {
+			grow(capacity * 2);
+		}
+		int node = freeList;
+		freeList = parent[node];
+		parent[node] = NULL;
+		left[node] = NULL;
+		right[node] = NULL;
+		height[node] = 0;
+		return node;
+	}
+
+	/**
+	 * Puts a node back on the free list.
+	 */
+	private void release(int node) {
+		parent[node] = freeList;
+		height[node] = NULL;
+		freeList = node;
+	}
+
+	/**
+	 * Grows the node pool to the specified capacity.
+	 */
+	private void grow(int newCapacity) {
+		minX = copy(minX, newCapacity);
+		minY = copy(minY, newCapacity);
+		maxX = copy(maxX, newCapacity);
+		maxY = copy(maxY, newCapacity);
+		parent = copy(parent, newCapacity);
+		left = copy(left, newCapacity);
+		right = copy(right, newCapacity);
+		height = copy(height, newCapacity);
+		order = copy(order, newCapacity);
+		Body[] b = new Body[newCapacity];
+		if (bodies != null) {
+			System.arraycopy(bodies, 0, b, 0, capacity);
+		}
+		bodies = b;
+
+		// Chain the new nodes onto the free list
+		for (int i = newCapacity - 1; i >= capacity; i--) {
+			parent[i] = freeList;
+			height[i] = NULL;
+			freeList = i;
+		}
+		capacity = newCapacity;
+	}
+
+	private float[] copy(float[] a, int size) {
+		float[] out = new float[size];
+		if (a != null) System.arraycopy(a, 0, out, 0, capacity);
+		return out;
+	}
+
+	private int[] copy(int[] a, int size) {
+		int[] out = new int[size];
+		if (a != null) System.arraycopy(a, 0, out, 0, capacity);
+		return out;
+	}
+}
@@ -0,0 +1,379 @@
+package sk.physics;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * A broad phase that bakes the static bodies into a tree of their
+ * own, and leaves the bodies that move to another broad phase.
+ * <p>
+ * The static bodies are sorted into a bounding volume hierarchy
+ * packed into flat arrays. Every step only the dynamic bodies look
+ * themselves up in it, the static bodies are never checked against
+ * each other, and they don't cost anything in the other broad phase.
+ * </p>
+ * <p>
+ * The tree is rebuilt from scratch, but only before a step where a
+ * static body was added or removed. Adding a whole level at once only
+ * builds the tree once. A baked body that is moved or made dynamic is
+ * taken out of the tree and handed to the other broad phase for good,
+ * so a moving platform only costs one rebuild. Bodies that are dynamic
+ * when they are added stay in the other broad phase even if they are
+ * made static later.
+ * </p>
+ * <pre>
+ * World world = new World(new BakedStatics(new UniformGrid()));
+ * </pre>
+ *
+ */
+public class BakedStatics implements Broadphase {
+
+	// The most bodies in a leaf of the tree
+	private static final int LEAF_SIZE = 4;
+
+	// The broad phase of the bodies that move
+	private final Broadphase moving;
+	private ArrayList<Body> movingBodies = new ArrayList<>();
+
+	// All bodies, baked or not
+	private HashSet<Body> members = new HashSet<>();
+
+	// The baked bodies, sorted so every node covers a range
+	private ArrayList<Body> baked = new ArrayList<>();
+	// The first bodies in the list are in the tree, the
+	// rest were added after it was built
+	private int numInTree = 0;
+	private Body[] items = new Body[0];
+	private float[] centers = new float[0];
+	private int numItems = 0;
+	private int numTriggers = 0;
+	// All the layers the baked bodies are on
+	private short layers = 0;
+	private boolean dirty = false;
+
+	// The nodes of the tree, the first child of each node comes
+	// right after it, the index of the second child is stored.
+	private float[] nodeMinX = new float[0];
+	private float[] nodeMinY = new float[0];
+	private float[] nodeMaxX = new float[0];
+	private float[] nodeMaxY = new float[0];
+	private int[] nodeStart = new int[0];
+	private int[] nodeCount = new int[0];
+	private int[] nodeRight = new int[0];
+	private int numNodes = 0;
+
+	// The tree is balanced, so the depth never gets close to this
+	private int[] stack = new int[64];
+
+	// Reused while the moving bodies look up the static ones
+	private PairCallback pairCallback;
+	private Body pairBody;
+	private final QueryCallback pairQuery = this::foundPair;
+
+	/**
+	 * Creates a new broad phase with the default uniform
+	 * grid for the bodies that move.
+	 */
+	public BakedStatics() {
+		this(new UniformGrid());
+	}
+
+	/**
+	 * Creates a new broad phase.
+	 *
+	 * @param moving the broad phase to use for the bodies that move.
+	 * @throws IllegalArgumentException if the broad phase is null.
+	 */
+	public BakedStatics(Broadphase moving) {
+		if (moving == null) throw new IllegalArgumentException("Broadphase passed to baked statics is null");
+		this.moving = moving;
+	}
+
+	/**
+	 * Returns the broad phase used for the bodies that move.
+	 *
+	 * @return the broad phase of the moving bodies.
+	 */
+	public Broadphase getMoving() {
+		return moving;
+	}
+
+	/**
+	 * Returns the number of bodies that are baked.
+	 *
+	 * @return the number of baked bodies.
+	 */
+	public int getNumberOfBaked() {
+		return baked.size();
+	}
+
+	@Override
+	public void add(Body body) {
+		if (!members.add(body)) return;
+		if (body.isDynamic()) {
+			movingBodies.add(body);
+			moving.add(body);
+		} else {
+			baked.add(body);
+			dirty = true;
+		}
+	}
+
+	@Override
+	public void remove(Body body) {
+		if (!members.remove(body)) return;
+		int i = baked.indexOf(body);
+		if (i != -1) {
+			baked.remove(i);
+			if (i < numInTree) numInTree--;
+			dirty = true;
+		} else {
+			movingBodies.remove(body);
+			moving.remove(body);
+		}
+	}
+
+	@Override
+	public void update() {
+		// The layers can change without the tree being rebuilt
+		layers = 0;
+		for (int i = baked.size() - 1; i >= 0; i--) {
+			Body b = baked.get(i);
+			// It's not static anymore, or it was moved after it was baked
+			if (b.isDynamic() || (i < numInTree && b.isCacheStale())) {
+				baked.remove(i);
+				if (i < numInTree) numInTree--;
+				movingBodies.add(b);
+				moving.add(b);
+				dirty = true;
+				continue;
+			}
+			layers |= b.getLayer();
+		}
+		moving.update();
+
+		if (dirty) {
+			bake();
+			dirty = false;
+		}
+	}
+
+	@Override
+	public void findPairs(PairCallback callback) {
+		moving.findPairs(callback);
+		if (numNodes == 0) return;
+
+		pairCallback = callback;
+		for (int i = 0; i < movingBodies.size(); i++) {
+			Body b = movingBodies.get(i);
+			if (!b.isDynamic() || b.maxX < b.minX) continue;
+			// Sleeping bodies are only checked against triggers
+			if (b.isSleeping() && numTriggers == 0) continue;
+			// Nothing baked is on a layer the body collides with
+			if ((b.collisionMask & layers) == 0) continue;
+			pairBody = b;
+			queryBaked(b.minX, b.minY, b.maxX, b.maxY, pairQuery);
+		}
+		pairCallback = null;
+		pairBody = null;
+	}
+
+	private void foundPair(Body b) {
+		if (!Body.layersCollide(pairBody, b)) {
+			pairCallback.layerRejected(pairBody, b);
+			return;
+		}
+		pairCallback.pair(pairBody, b);
+	}
+
+	@Override
+	public void query(float minX, float minY, float maxX, float maxY, QueryCallback callback) {
+		moving.query(minX, minY, maxX, maxY, callback);
+		queryBaked(minX, minY, maxX, maxY, callback);
+	}
+
+	/**
+	 * Reports the baked bodies that overlap the box.
+	 */
+	private void queryBaked(float minX, float minY, float maxX, float maxY, QueryCallback callback) {
+		if (numNodes == 0) return;
+
+		int top = 0;
+		stack[top++] = 0;
+		while (top != 0) {
+			int n = stack[--top];
+			if (maxX < nodeMinX[n] || nodeMaxX[n] < minX ||
+				maxY < nodeMinY[n] || nodeMaxY[n] < minY) continue;
+
+			if (nodeCount[n] == 0) {
+				stack[top++] = nodeRight[n];
+				stack[top++] = n + 1;
+				continue;
+			}
+			for (int i = nodeStart[n]; i < nodeStart[n] + nodeCount[n]; i++) {
+				Body b = items[i];
+				if (maxX < b.minX || b.maxX < minX ||
+					maxY < b.minY || b.maxY < minY) continue;
+				callback.found(b);
+			}
+		}
+	}
+
+	@Override
+	public void raycast(float x0, float y0, float x1, float y1, QueryCallback callback) {
+		moving.raycast(x0, y0, x1, y1, callback);
+		if (numNodes == 0) return;
+
+		int top = 0;
+		stack[top++] = 0;
+		while (top != 0) {
+			int n = stack[--top];
+			if (!Body.crosses(x0, y0, x1, y1,
+					nodeMinX[n], nodeMinY[n], nodeMaxX[n], nodeMaxY[n])) continue;
+
+			if (nodeCount[n] == 0) {
+				stack[top++] = nodeRight[n];
+				stack[top++] = n + 1;
+				continue;
+			}
+			for (int i = nodeStart[n]; i < nodeStart[n] + nodeCount[n]; i++) {
+				Body b = items[i];
+				if (Body.crosses(x0, y0, x1, y1, b.minX, b.minY, b.maxX, b.maxY)) {
+					callback.found(b);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the tree from all the baked bodies.
+	 */
+	private void bake() {
+		if (items.length < baked.size()) {
+			int capacity = baked.size();
+			items = new Body[capacity];
+			centers = new float[capacity];
+			int nodes = capacity * 2;
+			nodeMinX = new float[nodes];
+			nodeMinY = new float[nodes];
+			nodeMaxX = new float[nodes];
+			nodeMaxY = new float[nodes];
+			nodeStart = new int[nodes];
+			nodeCount = new int[nodes];
+			nodeRight = new int[nodes];
+		}
+
+		numItems = 0;
+		numTriggers = 0;
+		numInTree = baked.size();
+		for (int i = 0; i < baked.size(); i++) {
+			Body b = baked.get(i);
+			b.updateCache();
+			// Bodies without shapes can't be found
+			if (b.maxX < b.minX) continue;
+			items[numItems++] = b;
+			if (b.isTrigger()) numTriggers++;
+		}
+		for (int i = numItems; i < items.length; i++) {
+			items[i] = null;
+		}
+
+		numNodes = 0;
+		if (numItems != 0) {
+			build(0, numItems);
+		}
+	}
+
+	/**
+	 * Builds the node covering a range of the items, by splitting
+	 * the range in half along the axis the centers spread the most.
+	 *
+	 * @return the index of the node.
+	 */
+	private int build(int start, int end) {
+		int n = numNodes++;
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		float minCX = Float.MAX_VALUE;
+		float minCY = Float.MAX_VALUE;
+		float maxCX = -Float.MAX_VALUE;
+		float maxCY = -Float.MAX_VALUE;
+		for (int i = start; i < end; i++) {
+			Body b = items[i];
+			minX = Math.min(minX, b.minX);
+			minY = Math.min(minY, b.minY);
+			maxX = Math.max(maxX, b.maxX);
+			maxY = Math.max(maxY, b.maxY);
+			float cx = b.minX + b.maxX;
+			float cy = b.minY + b.maxY;
+			minCX = Math.min(minCX, cx);
+			minCY = Math.min(minCY, cy);
+			maxCX = Math.max(maxCX, cx);
+			maxCY = Math.max(maxCY, cy);
+		}
+		nodeMinX[n] = minX;
+		nodeMinY[n] = minY;
+		nodeMaxX[n] = maxX;
+		nodeMaxY[n] = maxY;
+
+		if (end - start <= LEAF_SIZE) {
+			nodeStart[n] = start;
+			nodeCount[n] = end - start;
+			return n;
+		}
+
+		boolean alongX = maxCY - minCY < maxCX - minCX;
+		for (int i = start; i < end; i++) {
+			Body b = items[i];
+			centers[i] = alongX ? b.minX + b.maxX : b.minY + b.maxY;
+		}
+		int mid = (start + end) >>> 1;
+		select(start, end, mid);
+
+		nodeStart[n] = start;
+		nodeCount[n] = 0;
+		build(start, mid);
+		nodeRight[n] = build(mid, end);
+		return n;
+	}
+
+	/**
+	 * Moves the items around so the one at k is where it would be
+	 * if the range was sorted by center, with no larger center before
+	 * it and no smaller after it.
+	 */
+	private void select(int start, int end, int k) {
+		int lo = start;
+		int hi = end - 1;
+		while (lo < hi) {
+			float pivot = centers[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (centers[i] < pivot) i++;
+				while (pivot < centers[j]) j--;
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (i <= k) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		Body b = items[i];
+		items[i] = items[j];
+		items[j] = b;
+		float c = centers[i];
+		centers[i] = centers[j];
+		centers[j] = c;
+	}
+}
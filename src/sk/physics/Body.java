@@ -20,17 +20,12 @@ import sk.util.vector.Vector3f;
  */
 public class Body extends Component {
 	
-	// Force and velocity
-	private Vector2f velocity = new Vector2f();
-	private Vector2f force = new Vector2f();
-	
 	// One way collisions
 	private Vector2f direction = new Vector2f(0, 1);
 	private float leniency = 1.0f;
 	
 	// The mass
 	private float mass = 0.0f;
-	private float invertedMass = 0.0f;
 	
 	// The friction coefficient
 	private float friction = 0.0f;
@@ -38,17 +33,31 @@ public class Body extends Component {
 	// The bounce factor
 	private float bounce = 0.0f;
 	
-	// If the body is dynamic
-	private boolean dynamic = true;
-	
-	// If the body should trigger any collision response
-	private boolean trigger = false;
-
-	// If the body should use the physics implemented in the engine.
-	private boolean onlyOverlap = false;
+	// Sleeping bodies are skipped by the world until something wakes them
+	private boolean sleepingAllowed = true;
+	
+	// Fast bodies are swept along their path, so they can't skip past walls
+	private boolean bullet = false;
+	// How long the body has been moving slowly enough to sleep
+	float sleepTimer = 0.0f;
+	// The bodies that fell asleep together, they wake up together
+	ArrayList<Body> island = null;
+	// The index of the body in the world, refreshed every step
+	// and used when building islands and taking snapshots
+	int index = 0;
+	// Handed out by the world, identifies the body in contact pairs
+	int id = 0;
+	// If the world keeps the body with the static triggers
+	boolean inTriggerSet = false;
+	// Where the body came to rest, the sleep timer restarts
+	// if it drifts too far from here
+	float restX, restY;
 	
 	// A bit-mask that says with which bodies we should collide
 	private short layer = (short) 0xFFFF;
+	// The layers the bodies we collide with may be on, worked out
+	// from the layer matrix of the world, see World#setLayersCollide
+	short collisionMask = layer;
 	
 	// A reference to the shape
 	private ArrayList<Shape> shapes = new ArrayList<>();
@@ -56,11 +65,62 @@ public class Body extends Component {
 	// A quick reference to the transform
 	private Transform transform = new Transform();
 	
+	// The velocity, force, inverted mass and the flags that say if the
+	// body is dynamic, a trigger, only overlaps or is sleeping. They are
+	// kept here until the body is added to a world that packs its bodies
+	// together, then they live in the storage of the world, at the index slot.
+	private float velocityX, velocityY;
+	private float forceX, forceY;
+	private float invertedMass;
+	private int flags = BodyStorage.DYNAMIC;
+	// The transform at the start of the last step
+	private float previousX, previousY, previousRotation;
+	BodyStorage storage = null;
+	int slot = -1;
+	
 	// A tag that makes it easier to search for collisions
 	private String tag = "";
+	// The number and bit of the tag, compared instead of the string
+	private int tagId = Tags.getId(tag);
+	private long tagBit = Tags.getBit(tagId);
 	
 	// A list of all collisions this frame
 	private ArrayList<Collision> collisions = new ArrayList<Collision>();
+	// Returned when no collisions are found, it's empty so it can be shared
+	private static final Collision[] NO_COLLISIONS = new Collision[0];
+	// All collision objects ever handed out, they are reused every step
+	private ArrayList<Collision> collisionPool = new ArrayList<Collision>();
+	
+	// The bounds of all shapes, refreshed by the broad phase every step
+	float minX, minY, maxX, maxY;
+	
+	// The shapes in world space, refreshed by updateCache() when the
+	// transform or the shapes change. The vertices are scaled and
+	// rotated, but relative to the center of their shape. The data
+	// of shape i starts at vertexOffsets[i] and normalOffsets[i].
+	float[] vertices = new float[0];
+	float[] normals = new float[0];
+	int[] vertexOffsets = new int[1];
+	int[] normalOffsets = new int[1];
+	// The center of each shape, stored as x, y
+	float[] centers = new float[0];
+	// The broad phase radius of each shape
+	float[] radii = new float[0];
+	// How far each rounded shape reaches out from its points, 0 for polygons
+	float[] shapeRadii = new float[0];
+	// The bounds of each shape, stored as minX, minY, maxX, maxY
+	float[] shapeBounds = new float[0];
+	
+	// The transform the cache was built from
+	private boolean dirty = true;
+	private float cachedX, cachedY;
+	private float cachedScaleX, cachedScaleY;
+	private float cachedRotation;
+	private int cachedShapes;
+	// Bumped every time the cache is rebuilt
+	int cacheVersion = 0;
+	// The version the parallel narrow phase tested against
+	int testedVersion = 0;
 	
 	/**
 	 * Creates a new body with the specified shapes. 
@@ -161,7 +221,7 @@ public class Body extends Component {
 	 * @return if it should skip all the fysics calculations.
 	 */
 	public boolean isOnlyOverlap() {
-		return onlyOverlap;
+		return hasFlag(BodyStorage.ONLY_OVERLAP);
 	}
 
 	/**
@@ -171,7 +231,196 @@ public class Body extends Component {
 	 * the engine cares about.
 	 */
 	public Body setOnlyOverlap(boolean b) {
-		onlyOverlap = b;
+		setFlag(BodyStorage.ONLY_OVERLAP, b);
+		return this;
+	}
+	
+	private boolean hasFlag(int flag) {
+		return (getFlags() & flag) != 0;
+	}
+	
+	private void setFlag(int flag, boolean set) {
+		if (set) {
+			putFlags(getFlags() | flag);
+		} else {
+			putFlags(getFlags() & ~flag);
+		}
+	}
+	
+	int getFlags() {
+		return storage == null ? flags : storage.flags[slot];
+	}
+	
+	void putFlags(int flags) {
+		if (storage == null) {
+			this.flags = flags;
+		} else {
+			storage.flags[slot] = flags;
+		}
+	}
+	
+	float getForceX() {
+		return storage == null ? forceX : storage.forceX[slot];
+	}
+	
+	float getForceY() {
+		return storage == null ? forceY : storage.forceY[slot];
+	}
+	
+	/**
+	 * Sets the force without waking the body up.
+	 */
+	void putForce(float x, float y) {
+		if (storage == null) {
+			forceX = x;
+			forceY = y;
+		} else {
+			storage.forceX[slot] = x;
+			storage.forceY[slot] = y;
+		}
+	}
+	
+	/**
+	 * Sets the velocity without waking the body up.
+	 */
+	void putVelocity(float x, float y) {
+		if (storage == null) {
+			velocityX = x;
+			velocityY = y;
+		} else {
+			storage.velocityX[slot] = x;
+			storage.velocityY[slot] = y;
+		}
+	}
+	
+	void putPrevious(float x, float y, float rotation) {
+		if (storage == null) {
+			previousX = x;
+			previousY = y;
+			previousRotation = rotation;
+		} else {
+			storage.previousX[slot] = x;
+			storage.previousY[slot] = y;
+			storage.previousRotation[slot] = rotation;
+		}
+	}
+	
+	/**
+	 * Moves the state of this body to the end of a packed storage.
+	 * 
+	 * @param to the storage to move to.
+	 */
+	void pack(BodyStorage to) {
+		int i = to.add(this, transform, getFlags());
+		to.velocityX[i] = getVelocityX();
+		to.velocityY[i] = getVelocityY();
+		to.forceX[i] = getForceX();
+		to.forceY[i] = getForceY();
+		to.invertedMass[i] = getInvertedMass();
+		to.previousX[i] = getPreviousX();
+		to.previousY[i] = getPreviousY();
+		to.previousRotation[i] = getPreviousRotation();
+		if (storage != null) {
+			storage.remove(slot);
+		}
+		storage = to;
+		slot = i;
+	}
+	
+	/**
+	 * Moves the state of this body out of its packed storage,
+	 * back into the body.
+	 */
+	void unpack() {
+		if (storage == null) return;
+		BodyStorage from = storage;
+		int i = slot;
+		flags = from.flags[i];
+		velocityX = from.velocityX[i];
+		velocityY = from.velocityY[i];
+		forceX = from.forceX[i];
+		forceY = from.forceY[i];
+		invertedMass = from.invertedMass[i];
+		previousX = from.previousX[i];
+		previousY = from.previousY[i];
+		previousRotation = from.previousRotation[i];
+		from.remove(i);
+		storage = null;
+		slot = -1;
+	}
+	
+	/**
+	 * Returns whether or not this body is sleeping. A sleeping
+	 * body is not moved by the world and is only checked for
+	 * collisions against bodies that are awake.
+	 * 
+	 * @return true if the body is sleeping.
+	 */
+	public boolean isSleeping() {
+		return hasFlag(BodyStorage.SLEEPING);
+	}
+	
+	/**
+	 * Wakes this body up, along with all bodies it fell asleep
+	 * with. This is done automatically when forces or velocities
+	 * are applied, when the transform is moved, or when an awake
+	 * body collides with it.
+	 * 
+	 * @return this body instance.
+	 */
+	public Body wake() {
+		if (!isSleeping()) return this;
+		if (island == null) {
+			setFlag(BodyStorage.SLEEPING, false);
+			sleepTimer = 0.0f;
+			return this;
+		}
+		ArrayList<Body> wakeUp = island;
+		for (Body b : wakeUp) {
+			b.setFlag(BodyStorage.SLEEPING, false);
+			b.sleepTimer = 0.0f;
+			b.island = null;
+		}
+		return this;
+	}
+	
+	/**
+	 * Puts the body to sleep.
+	 * 
+	 * @param island the bodies that fell asleep together with this one.
+	 */
+	void sleep(ArrayList<Body> island) {
+		setFlag(BodyStorage.SLEEPING, true);
+		this.island = island;
+		putVelocity(0.0f, 0.0f);
+		putForce(0.0f, 0.0f);
+		// The last push may have come after the cache was updated,
+		// only moves made from here on should wake the body
+		updateCache();
+	}
+	
+	/**
+	 * Returns whether or not this body may fall asleep.
+	 * 
+	 * @return true if the body may sleep.
+	 */
+	public boolean isSleepingAllowed() {
+		return sleepingAllowed;
+	}
+	
+	/**
+	 * Sets whether or not this body may fall asleep. Bodies
+	 * that must never stop, like the player, should not sleep.
+	 * Note that a body that may not sleep also keeps every 
+	 * body it touches awake.
+	 * 
+	 * @param sleepingAllowed if the body may sleep.
+	 * @return this body instance.
+	 */
+	public Body setSleepingAllowed(boolean sleepingAllowed) {
+		this.sleepingAllowed = sleepingAllowed;
+		if (!sleepingAllowed) wake();
+		
 		return this;
 	}
 	
@@ -199,6 +448,11 @@ public class Body extends Component {
 	 */
 	public void decouple(Transform transform) {
 		this.transform = transform;
+		if (storage != null) {
+			storage.transforms[slot] = transform;
+		}
+		snapshot();
+		dirty = true;
 	}
 
 	/**
@@ -219,16 +473,51 @@ public class Body extends Component {
 	/**
 	 * 
 	 * Returns a list of all collisions with the two tags.
+	 * <p>
+	 * A new array is made for the collisions on every call that
+	 * finds any. Code that asks every step should keep a mask from
+	 * {@link Tags#getMask(String...)} and an array, and call
+	 * {@link #getCollisionsWithTags(long, Collision[])} instead.
+	 * </p>
 	 * 
 	 * @param tags the tags.
 	 * @return a list of their collisions.
 	 */
 	public Collision[] getCollisionsWithTags(String...tags) {
+		long mask = 0L;
+		for (String tag : tags) {
+			int id = Tags.findId(tag);
+			if (id != Tags.NONE && Tags.getBit(id) == 0L) {
+				// Past the first 64 tags, the mask can't hold it
+				return getCollisionsWithTagIds(tags);
+			}
+			// Tags no body has had are left out, they can't match
+			mask |= Tags.getBit(id);
+		}
+		
+		int count = 0;
+		for (int i = 0; i < collisions.size(); i++) {
+			if ((collisions.get(i).other.tagBit & mask) != 0L) {
+				count++;
+			}
+		}
+		if (count == 0) return NO_COLLISIONS;
+		Collision[] out = new Collision[count];
+		getCollisionsWithTags(mask, out);
+		return out;
+	}
+	
+	private Collision[] getCollisionsWithTagIds(String...tags) {
+		int[] ids = new int[tags.length];
+		for (int i = 0; i < tags.length; i++) {
+			ids[i] = Tags.findId(tags[i]);
+		}
 		ArrayList<Collision> collisions = new ArrayList<Collision>();
 		for (Collision c : this.collisions) {
-			for (String tag : tags) {
-				if (c.other.getTag().equals(tag)) {
+			for (int id : ids) {
+				if (c.other.tagId == id) {
 					collisions.add(c);
+					break;
 				}
 			}
 		}
@@ -237,6 +526,26 @@ public class Body extends Component {
 		return out;
 	}
 	
+	/**
+	 * Fills the array with the collisions where the other body has
+	 * one of the tags in the mask. If there are more collisions than
+	 * fit in the array, the rest are skipped.
+	 * 
+	 * @param mask the bits of the tags, see {@link Tags#getMask(String...)}.
+	 * @param out the array to fill.
+	 * @return the number of collisions written to the array.
+	 */
+	public int getCollisionsWithTags(long mask, Collision[] out) {
+		int count = 0;
+		for (int i = 0; i < collisions.size() && count < out.length; i++) {
+			Collision c = collisions.get(i);
+			if ((c.other.tagBit & mask) != 0L) {
+				out[count++] = c;
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * Returns a list of all the collisions where the other object
 	 * matches the tag. 
@@ -245,9 +554,10 @@ public class Body extends Component {
 	 * @return a list of collisions with the tag.
 	 */
 	public Collision[] getCollisionsWithTag(String tag) {
+		int id = Tags.findId(tag);
 		ArrayList<Collision> collisions = new ArrayList<Collision>();
 		for (Collision c : this.collisions) {
-			if (c.other.getTag().equals(tag)) {
+			if (c.other.tagId == id) {
 				collisions.add(c);
 			}
 		}		
@@ -256,6 +566,26 @@ public class Body extends Component {
 		return out;
 	}
 	
+	/**
+	 * Fills the array with the collisions where the other body has
+	 * the tag. If there are more collisions than fit in the array,
+	 * the rest are skipped.
+	 * 
+	 * @param tagId the number of the tag, see {@link Tags#getId(String)}.
+	 * @param out the array to fill.
+	 * @return the number of collisions written to the array.
+	 */
+	public int getCollisionsWithTag(int tagId, Collision[] out) {
+		int count = 0;
+		for (int i = 0; i < collisions.size() && count < out.length; i++) {
+			Collision c = collisions.get(i);
+			if (c.other.tagId == tagId) {
+				out[count++] = c;
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * 
 	 * Returns the first collision with the tag if there is one, null otherwise.
@@ -264,8 +594,19 @@ public class Body extends Component {
 	 * @return the collision if it exists.
 	 */
 	public Collision getCollisionWithTag(String tag) {
-		for (Collision c : collisions) {
-			if (c.other.getTag().equals(tag)) {
+		return getCollisionWithTag(Tags.findId(tag));
+	}
+	
+	/**
+	 * Returns the first collision with the tag if there is one, null otherwise.
+	 * 
+	 * @param tagId the number of the tag, see {@link Tags#getId(String)}.
+	 * @return the collision if it exists.
+	 */
+	public Collision getCollisionWithTag(int tagId) {
+		for (int i = 0; i < collisions.size(); i++) {
+			Collision c = collisions.get(i);
+			if (c.other.tagId == tagId) {
 				return c;
 			}
 		}
@@ -348,11 +689,25 @@ public class Body extends Component {
 	 * @return true if the any tag was found on a colliding body.
 	 */
 	public boolean isCollidingWithTags(String ...tags) {
-		for (Collision c : collisions) {
-			for (String tag : tags) {
-				if (c.other.getTag().equals(tag)) {
-					return true;
-				}
+		for (String tag : tags) {
+			if (getCollisionWithTag(Tags.findId(tag)) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns whether or not there are any collisions with
+	 * a body that has one of the tags in the mask.
+	 * 
+	 * @param mask the bits of the tags, see {@link Tags#getMask(String...)}.
+	 * @return true if the any tag was found on a colliding body.
+	 */
+	public boolean isCollidingWithTags(long mask) {
+		for (int i = 0; i < collisions.size(); i++) {
+			if ((collisions.get(i).other.tagBit & mask) != 0L) {
+				return true;
 			}
 		}
 		return false;
@@ -364,13 +719,23 @@ public class Body extends Component {
 	 * 
 	 * This functions makes sure all normals are pointing away
 	 * from the this body.
+	 * <p>
+	 * The collision is copied into an object owned by this body,
+	 * which is reused on the next step. Hold on to the values,
+	 * not the collision, if you need them for longer.
+	 * </p>
 	 * 
 	 * @param c the collision our superior overlords wish to add.
 	 */
 	protected void addCollision(Collision in) {
-		Collision c = new Collision(in);
-		c.normal = in.normal.clone();
-		c.distance = in.distance.clone();
+		Collision c;
+		if (collisions.size() < collisionPool.size()) {
+			c = collisionPool.get(collisions.size());
+		} else {
+			c = new Collision();
+			collisionPool.add(c);
+		}
+		c.set(in);
 		if (c.a == this) {
 			c.other = c.b;
 			
@@ -405,7 +770,7 @@ public class Body extends Component {
 	 * @return true if the body is dynamic.
 	 */
 	public boolean isDynamic() {
-		return dynamic;
+		return hasFlag(BodyStorage.DYNAMIC);
 	}
 	
 	/**
@@ -417,7 +782,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body setDynamic(boolean dynamic) {
-		this.dynamic = dynamic;
+		setFlag(BodyStorage.DYNAMIC, dynamic);
+		wake();
 		
 		return this;
 	}
@@ -463,7 +829,11 @@ public class Body extends Component {
 			throw new IllegalArgumentException("Zero or negative mass supplied.");
 		}
 		this.mass = mass;
-		this.invertedMass = 1.0f / mass;
+		if (storage == null) {
+			invertedMass = 1.0f / mass;
+		} else {
+			storage.invertedMass[slot] = 1.0f / mass;
+		}
 		
 		return this;
 	}
@@ -483,7 +853,7 @@ public class Body extends Component {
 	 * @return the inverted mass of this body.
 	 */
 	public float getInvertedMass() {
-		return invertedMass;
+		return storage == null ? invertedMass : storage.invertedMass[slot];
 	}
 	
 	/**
@@ -492,7 +862,25 @@ public class Body extends Component {
 	 * @return the velocity of the body.
 	 */
 	public Vector2f getVelocity() {
-		return velocity.clone();
+		return new Vector2f(getVelocityX(), getVelocityY());
+	}
+	
+	/**
+	 * Returns the current velocity of this body along the x axis.
+	 * 
+	 * @return the velocity along the x axis.
+	 */
+	public float getVelocityX() {
+		return storage == null ? velocityX : storage.velocityX[slot];
+	}
+	
+	/**
+	 * Returns the current velocity of this body along the y axis.
+	 * 
+	 * @return the velocity along the y axis.
+	 */
+	public float getVelocityY() {
+		return storage == null ? velocityY : storage.velocityY[slot];
 	}
 	
 	/**
@@ -501,7 +889,15 @@ public class Body extends Component {
 	 * @return the velocity after the next frame if nothing unexpected affects the body.
 	 */
 	public Vector2f getNextVelocity() {
-		return getVelocity().add(force.clone().scale(invertedMass));
+		return new Vector2f(getNextVelocityX(), getNextVelocityY());
+	}
+	
+	float getNextVelocityX() {
+		return getVelocityX() + getForceX() * getInvertedMass();
+	}
+	
+	float getNextVelocityY() {
+		return getVelocityY() + getForceY() * getInvertedMass();
 	}
 	
 	/**
@@ -539,7 +935,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body addForce(Vector2f force) {
-		Vector2f.add((Vector2f) force, this.force, this.force);
+		putForce(force.x + getForceX(), force.y + getForceY());
+		wake();
 		
 		return this;
 	}
@@ -577,7 +974,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body addVelocity(Vector2f vel) {
-		Vector2f.add(vel, velocity, velocity);
+		putVelocity(vel.x + getVelocityX(), vel.y + getVelocityY());
+		wake();
 		
 		return this;
 	}
@@ -595,7 +993,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body addVelocityX(float x) {
-		Vector2f.add(new Vector2f(x, 0), velocity, velocity);
+		putVelocity(x + getVelocityX(), getVelocityY());
+		wake();
 		
 		return this;
 	}
@@ -613,7 +1012,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body addVelocityY(float y) {
-		Vector2f.add(new Vector2f(0, y), velocity, velocity);
+		putVelocity(getVelocityX(), y + getVelocityY());
+		wake();
 		
 		return this;
 	}
@@ -631,7 +1031,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body setVelocity(Vector2f vel) {
-		velocity = vel.clone();
+		putVelocity(vel.x, vel.y);
+		wake();
 		
 		return this;
 	}
@@ -649,7 +1050,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body setVelocityX(float x) {
-		velocity.x = x;
+		putVelocity(x, getVelocityY());
+		wake();
 		
 		return this;
 	}
@@ -667,7 +1069,8 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body setVelocityY(float y) {
-		velocity.y = y;
+		putVelocity(getVelocityX(), y);
+		wake();
 		
 		return this;
 	}
@@ -688,6 +1091,11 @@ public class Body extends Component {
 	@Override
 	public void init() {
 		transform = getParent().get(Transform.class);
+		if (storage != null) {
+			storage.transforms[slot] = transform;
+		}
+		snapshot();
+		dirty = true;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -705,14 +1113,474 @@ public class Body extends Component {
 	 */
 	public void step(double delta) {
 		if (isDynamic() && !isTrigger()) {
-			Vector2f.add(velocity, (Vector2f) force.scale(invertedMass), velocity);
-			force.set(0.0f, 0.0f);			
+			applyForce();
 		}
-		Vector2f.add(transform.position, (Vector2f) velocity.clone().scale((float) delta), transform.position);
+		float dt = (float) delta;
+		transform.position.x = transform.position.x + getVelocityX() * dt;
+		transform.position.y = transform.position.y + getVelocityY() * dt;
+		collisions.clear();
+	}
+	
+	/**
+	 * Adds the accumulated force to the velocity, and clears it.
+	 */
+	void applyForce() {
+		float invertedMass = getInvertedMass();
+		putVelocity(
+				getVelocityX() + getForceX() * invertedMass,
+				getVelocityY() + getForceY() * invertedMass);
+		putForce(0.0f, 0.0f);
+	}
+	
+	/**
+	 * Remembers the current transform, as where the body
+	 * was before the step that is about to be taken.
+	 */
+	void snapshot() {
+		putPrevious(transform.position.x, transform.position.y, transform.rotation);
+	}
+	
+	/**
+	 * Returns the position along the x axis this body had
+	 * before the last step.
+	 * 
+	 * @return the previous position along the x axis.
+	 */
+	public float getPreviousX() {
+		return storage == null ? previousX : storage.previousX[slot];
+	}
+	
+	/**
+	 * Returns the position along the y axis this body had
+	 * before the last step.
+	 * 
+	 * @return the previous position along the y axis.
+	 */
+	public float getPreviousY() {
+		return storage == null ? previousY : storage.previousY[slot];
+	}
+	
+	/**
+	 * Returns the rotation this body had before the last step.
+	 * 
+	 * @return the previous rotation.
+	 */
+	public float getPreviousRotation() {
+		return storage == null ? previousRotation : storage.previousRotation[slot];
+	}
+	
+	/**
+	 * Returns where the body is between the last two steps. This 
+	 * is where the body should be drawn if the world runs at a lower
+	 * rate than the screen is drawn at.
+	 * 
+	 * @param alpha how far from the previous step to the current one,
+	 * usually {@link World#getAlpha()}.
+	 * @param dest the vector to write the position to.
+	 * @return the destination vector.
+	 */
+	public Vector2f getInterpolatedPosition(float alpha, Vector2f dest) {
+		float x = getPreviousX();
+		float y = getPreviousY();
+		dest.set(x + (transform.position.x - x) * alpha,
+				y + (transform.position.y - y) * alpha);
+		return dest;
+	}
+	
+	/**
+	 * Returns the rotation of the body between the last two steps.
+	 * 
+	 * @param alpha how far from the previous step to the current one,
+	 * usually {@link World#getAlpha()}.
+	 * @return the interpolated rotation.
+	 */
+	public float getInterpolatedRotation(float alpha) {
+		float r = getPreviousRotation();
+		return r + (transform.rotation - r) * alpha;
+	}
+	
+	/**
+	 * Forgets the collisions of the last step.
+	 */
+	void clearCollisions() {
 		collisions.clear();
 	}
 
 	
+	/**
+	 * Makes sure the cache is rebuilt on the next update, for
+	 * changes the cache can't see by itself.
+	 */
+	void invalidateCache() {
+		dirty = true;
+	}
+	
+	/**
+	 * Checks if the transform or the shapes have changed since
+	 * the cache was last built.
+	 * 
+	 * @return true if {@link #updateCache()} would rebuild the cache.
+	 */
+	boolean isCacheStale() {
+		Transform t = transform;
+		return dirty ||
+				cachedX != t.position.x || cachedY != t.position.y ||
+				cachedScaleX != t.scale.x || cachedScaleY != t.scale.y ||
+				cachedRotation != t.rotation || cachedShapes != shapes.size();
+	}
+	
+	/**
+	 * Checks if the body has moved since the parallel narrow
+	 * phase tested it.
+	 * 
+	 * @return true if the tests have to be redone.
+	 */
+	boolean hasMovedSinceTest() {
+		return testedVersion != cacheVersion || isCacheStale();
+	}
+	
+	/**
+	 * Recalculates the world space vertices, normals, centers, radii
+	 * and bounds of all shapes, as well as the bounds enclosing all of
+	 * them. Nothing is done if neither the transform nor the shapes
+	 * have changed since the last call, so it's cheap to call this
+	 * whenever the cache needs to be up to date.
+	 * <p>
+	 * If the body has no shapes the bounds will be empty, that
+	 * is, the minimum will be greater than the maximum.
+	 * </p>
+	 */
+	void updateCache() {
+		if (!isCacheStale()) return;
+		Transform t = transform;
+		dirty = false;
+		cacheVersion++;
+		cachedX = t.position.x;
+		cachedY = t.position.y;
+		cachedScaleX = t.scale.x;
+		cachedScaleY = t.scale.y;
+		cachedRotation = t.rotation;
+		cachedShapes = shapes.size();
+		
+		int numShapes = shapes.size();
+		if (vertexOffsets.length < numShapes + 1) {
+			vertexOffsets = new int[numShapes + 1];
+			normalOffsets = new int[numShapes + 1];
+			centers = new float[numShapes * 2];
+			radii = new float[numShapes];
+			shapeRadii = new float[numShapes];
+			shapeBounds = new float[numShapes * 4];
+		}
+		int numVertices = 0;
+		int numNormals = 0;
+		for (int i = 0; i < numShapes; i++) {
+			vertexOffsets[i] = numVertices;
+			normalOffsets[i] = numNormals;
+			numVertices += shapes.get(i).points.length * 2;
+			numNormals += shapes.get(i).normals.length * 2;
+		}
+		vertexOffsets[numShapes] = numVertices;
+		normalOffsets[numShapes] = numNormals;
+		if (vertices.length < numVertices) vertices = new float[numVertices];
+		if (normals.length < numNormals) normals = new float[numNormals];
+		
+		float c = (float) Math.cos(t.rotation);
+		float s = (float) Math.sin(t.rotation);
+		
+		minX = minY = Float.MAX_VALUE;
+		maxX = maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < numShapes; i++) {
+			Shape shape = shapes.get(i);
+			float cx = shape.getCenterX(t);
+			float cy = shape.getCenterY(t);
+			centers[i * 2    ] = cx;
+			centers[i * 2 + 1] = cy;
+			radii[i] = shape.getBP(t);
+			float round = shape.radius == 0.0f ? 0.0f : shape.getRadius(t);
+			shapeRadii[i] = round;
+			
+			// Scale and rotate
+			float sMinX = Float.MAX_VALUE;
+			float sMinY = Float.MAX_VALUE;
+			float sMaxX = -Float.MAX_VALUE;
+			float sMaxY = -Float.MAX_VALUE;
+			int v = vertexOffsets[i];
+			for (Vector2f p : shape.points) {
+				float x = p.x * t.scale.x;
+				float y = p.y * t.scale.y;
+				float rx = x * c - y * s;
+				float ry = x * s + y * c;
+				vertices[v++] = rx;
+				vertices[v++] = ry;
+				sMinX = Math.min(sMinX, rx);
+				sMinY = Math.min(sMinY, ry);
+				sMaxX = Math.max(sMaxX, rx);
+				sMaxY = Math.max(sMaxY, ry);
+			}
+			
+			int n = normalOffsets[i];
+			for (Vector2f p : shape.normals) {
+				normals[n++] = p.x * c - p.y * s;
+				normals[n++] = p.x * s + p.y * c;
+			}
+			
+			if (round != 0.0f) {
+				sMinX -= round;
+				sMinY -= round;
+				sMaxX += round;
+				sMaxY += round;
+			}
+			shapeBounds[i * 4    ] = sMinX + cx;
+			shapeBounds[i * 4 + 1] = sMinY + cy;
+			shapeBounds[i * 4 + 2] = sMaxX + cx;
+			shapeBounds[i * 4 + 3] = sMaxY + cy;
+			minX = Math.min(minX, shapeBounds[i * 4    ]);
+			minY = Math.min(minY, shapeBounds[i * 4 + 1]);
+			maxX = Math.max(maxX, shapeBounds[i * 4 + 2]);
+			maxY = Math.max(maxY, shapeBounds[i * 4 + 3]);
+		}
+	}
+	
+	/**
+	 * Checks if a line segment crosses a box, or lies inside it.
+	 * 
+	 * @param x0 the x coordinate of the start of the segment.
+	 * @param y0 the y coordinate of the start of the segment.
+	 * @param x1 the x coordinate of the end of the segment.
+	 * @param y1 the y coordinate of the end of the segment.
+	 * @return true if the segment touches the box.
+	 */
+	static boolean crosses(float x0, float y0, float x1, float y1,
+			float minX, float minY, float maxX, float maxY) {
+		float enter = 0.0f;
+		float exit = 1.0f;
+		
+		float dx = x1 - x0;
+		if (dx == 0.0f) {
+			if (x0 < minX || maxX < x0) return false;
+		} else {
+			float t0 = (minX - x0) / dx;
+			float t1 = (maxX - x0) / dx;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+			if (exit < enter) return false;
+		}
+		
+		float dy = y1 - y0;
+		if (dy == 0.0f) {
+			if (y0 < minY || maxY < y0) return false;
+		} else {
+			float t0 = (minY - y0) / dy;
+			float t1 = (maxY - y0) / dy;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+			if (exit < enter) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if a point is inside one of the shapes, using the cache.
+	 * 
+	 * @param shape the index of the shape.
+	 * @param x the x coordinate of the point.
+	 * @param y the y coordinate of the point.
+	 * @return true if the point is inside the shape.
+	 */
+	boolean contains(int shape, float x, float y) {
+		float[] b = shapeBounds;
+		if (x < b[shape * 4] || b[shape * 4 + 2] < x ||
+			y < b[shape * 4 + 1] || b[shape * 4 + 3] < y) return false;
+		
+		float px = x - centers[shape * 2];
+		float py = y - centers[shape * 2 + 1];
+		float round = shapeRadii[shape];
+		if (round != 0.0f) {
+			return distanceSquared(shape, px, py) <= round * round;
+		}
+		
+		// The shape is the overlap of one slab per normal
+		for (int n = normalOffsets[shape]; n < normalOffsets[shape + 1]; n += 2) {
+			float nx = normals[n];
+			float ny = normals[n + 1];
+			float p = px * nx + py * ny;
+			float min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			for (int v = vertexOffsets[shape]; v < vertexOffsets[shape + 1]; v += 2) {
+				float d = vertices[v] * nx + vertices[v + 1] * ny;
+				min = Math.min(min, d);
+				max = Math.max(max, d);
+			}
+			if (p < min || max < p) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Casts a ray against one of the shapes, using the cache. The hit
+	 * is only written if the ray enters the shape before the fraction
+	 * already stored in the hit. Rays that start inside the shape
+	 * don't hit it.
+	 * 
+	 * @param shape the index of the shape.
+	 * @param x0 the x coordinate of the start of the ray.
+	 * @param y0 the y coordinate of the start of the ray.
+	 * @param dx the x coordinate of the end of the ray, relative to the start.
+	 * @param dy the y coordinate of the end of the ray, relative to the start.
+	 * @param hit the hit to write to.
+	 * @return true if the hit was written.
+	 */
+	boolean raycast(int shape, float x0, float y0, float dx, float dy, RaycastHit hit) {
+		float px = x0 - centers[shape * 2];
+		float py = y0 - centers[shape * 2 + 1];
+		if (shapeRadii[shape] != 0.0f) {
+			return raycastRound(shape, px, py, x0, y0, dx, dy, hit);
+		}
+		float enter = -Float.MAX_VALUE;
+		float exit = Float.MAX_VALUE;
+		float hitX = 0.0f;
+		float hitY = 0.0f;
+		
+		// Clip the ray against one slab per normal
+		for (int n = normalOffsets[shape]; n < normalOffsets[shape + 1]; n += 2) {
+			float nx = normals[n];
+			float ny = normals[n + 1];
+			float min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			for (int v = vertexOffsets[shape]; v < vertexOffsets[shape + 1]; v += 2) {
+				float d = vertices[v] * nx + vertices[v + 1] * ny;
+				min = Math.min(min, d);
+				max = Math.max(max, d);
+			}
+			
+			float p = px * nx + py * ny;
+			float d = dx * nx + dy * ny;
+			if (d == 0.0f) {
+				if (p < min || max < p) return false;
+				continue;
+			}
+			
+			// Moving along the normal, the ray enters through the minimum
+			float t0 = ((d > 0.0f ? min : max) - p) / d;
+			float t1 = ((d > 0.0f ? max : min) - p) / d;
+			if (enter < t0) {
+				enter = t0;
+				hitX = d > 0.0f ? -nx : nx;
+				hitY = d > 0.0f ? -ny : ny;
+			}
+			exit = Math.min(exit, t1);
+			if (exit < enter) return false;
+		}
+		
+		if (enter < 0.0f || hit.fraction <= enter) return false;
+		
+		float length = (float) Math.sqrt(hitX * hitX + hitY * hitY);
+		hit.body = this;
+		hit.fraction = enter;
+		hit.point.set(x0 + dx * enter, y0 + dy * enter);
+		hit.normal.set(hitX / length, hitY / length);
+		return true;
+	}
+	
+	/**
+	 * Returns the squared distance from a point to the points of
+	 * a rounded shape, which is a single point for circles and the
+	 * line between two points for capsules.
+	 * 
+	 * @param shape the index of the shape.
+	 * @param px the x coordinate of the point, relative to the center of the shape.
+	 * @param py the y coordinate of the point, relative to the center of the shape.
+	 * @return the squared distance.
+	 */
+	float distanceSquared(int shape, float px, float py) {
+		int v = vertexOffsets[shape];
+		float ax = vertices[v];
+		float ay = vertices[v + 1];
+		float ex = 0.0f;
+		float ey = 0.0f;
+		if (vertexOffsets[shape + 1] - v == 4) {
+			ex = vertices[v + 2] - ax;
+			ey = vertices[v + 3] - ay;
+		}
+		float length = ex * ex + ey * ey;
+		float along = length == 0.0f ? 0.0f :
+			Math.max(0.0f, Math.min(1.0f, ((px - ax) * ex + (py - ay) * ey) / length));
+		float x = px - ax - ex * along;
+		float y = py - ay - ey * along;
+		return x * x + y * y;
+	}
+	
+	/**
+	 * Casts a ray against a rounded shape. A capsule is a box along
+	 * the line with a circle at each end, the ray enters the capsule
+	 * where it first enters one of them.
+	 * 
+	 * @param shape the index of the shape.
+	 * @param px the x coordinate of the start of the ray, relative to the center of the shape.
+	 * @param py the y coordinate of the start of the ray, relative to the center of the shape.
+	 * @param x0 the x coordinate of the start of the ray.
+	 * @param y0 the y coordinate of the start of the ray.
+	 * @param dx the x coordinate of the end of the ray, relative to the start.
+	 * @param dy the y coordinate of the end of the ray, relative to the start.
+	 * @param hit the hit to write to.
+	 * @return true if the hit was written.
+	 */
+	private boolean raycastRound(int shape, float px, float py, float x0, float y0,
+			float dx, float dy, RaycastHit hit) {
+		float round = shapeRadii[shape];
+		if (distanceSquared(shape, px, py) <= round * round) return false;
+		
+		float enter = hit.fraction;
+		float hitX = 0.0f;
+		float hitY = 0.0f;
+		for (int v = vertexOffsets[shape]; v < vertexOffsets[shape + 1]; v += 2) {
+			// Solve |p + d * t - v| = r for the first t
+			float cx = px - vertices[v];
+			float cy = py - vertices[v + 1];
+			float a = dx * dx + dy * dy;
+			float b = cx * dx + cy * dy;
+			float c = cx * cx + cy * cy - round * round;
+			float discriminant = b * b - a * c;
+			if (a == 0.0f || discriminant < 0.0f) continue;
+			float t = (-b - (float) Math.sqrt(discriminant)) / a;
+			if (t < 0.0f || enter <= t) continue;
+			enter = t;
+			hitX = cx + dx * t;
+			hitY = cy + dy * t;
+		}
+		
+		if (vertexOffsets[shape + 1] - vertexOffsets[shape] == 4) {
+			// The sides of the capsule, the normal is stored in the cache
+			int v = vertexOffsets[shape];
+			float ex = vertices[v + 2] - vertices[v];
+			float ey = vertices[v + 3] - vertices[v + 1];
+			float nx = normals[normalOffsets[shape]];
+			float ny = normals[normalOffsets[shape] + 1];
+			float side = px * nx + py * ny;
+			float d = dx * nx + dy * ny;
+			if (d != 0.0f && round < Math.abs(side)) {
+				// Hit the side facing the ray
+				float toward = side < 0.0f ? -round : round;
+				float t = (toward - side) / d;
+				float along = (px + dx * t - vertices[v]) * ex + (py + dy * t - vertices[v + 1]) * ey;
+				if (0.0f <= t && t < enter && 0.0f <= along && along <= ex * ex + ey * ey) {
+					enter = t;
+					hitX = side < 0.0f ? -nx : nx;
+					hitY = side < 0.0f ? -ny : ny;
+				}
+			}
+		}
+		
+		if (hit.fraction <= enter) return false;
+		
+		float length = (float) Math.sqrt(hitX * hitX + hitY * hitY);
+		hit.body = this;
+		hit.fraction = enter;
+		hit.point.set(x0 + dx * enter, y0 + dy * enter);
+		hit.normal.set(hitX / length, hitY / length);
+		return true;
+	}
+	
 	/**
 	 * Returns the momentum of this body.
 	 * 
@@ -726,9 +1594,36 @@ public class Body extends Component {
 	 * @return true if this body is a trigger.
 	 */
 	public boolean isTrigger() {
-		return trigger;
+		return hasFlag(BodyStorage.TRIGGER);
 	}
 
+	/**
+	 * Returns whether or not this body is a bullet.
+	 * 
+	 * @return true if the body is a bullet.
+	 */
+	public boolean isBullet() {
+		return bullet;
+	}
+	
+	/**
+	 * Sets whether or not this body is a bullet. A bullet is 
+	 * swept along the path it moves each step, and stopped where
+	 * it first touches something, so it can't pass through walls
+	 * that are thinner than the distance it moves in a step. 
+	 * This costs more than a regular body, so only fast moving
+	 * bodies should be bullets. Bullets are not swept against 
+	 * triggers or other bullets.
+	 * 
+	 * @param bullet if the body should be a bullet.
+	 * @return this body instance.
+	 */
+	public Body setBullet(boolean bullet) {
+		this.bullet = bullet;
+		
+		return this;
+	}
+	
 	/**
 	 * Sets whether this body should be a trigger or not.
 	 * 
@@ -740,7 +1635,7 @@ public class Body extends Component {
 	 * @return this body instance.
 	 */
 	public Body setTrigger(boolean trigger) {
-		this.trigger = trigger;
+		setFlag(BodyStorage.TRIGGER, trigger);
 		
 		return this;
 	}
@@ -757,13 +1652,16 @@ public class Body extends Component {
 	/**
 	 * The layers are handled as bitmaps.
 	 * If two bodies have overlapping layer bits,
-	 * they will respond to each other.
+	 * they will respond to each other. Which layers
+	 * respond to each other can be changed in the
+	 * world, see {@link World#setLayersCollide(int, int, boolean)}.
 	 * 
 	 * @param layer the new layer bitmap.
 	 * @return this body instance.
 	 */
 	public Body setLayer(short layer) {
 		this.layer = layer;
+		collisionMask = layer;
 		
 		return this;
 	}
@@ -779,6 +1677,19 @@ public class Body extends Component {
 		return (getLayer() & b.getLayer()) != 0;
 	}
 	
+	/**
+	 * Checks if the layers of the two bodies interact, according
+	 * to the layer matrix of the world they're in. Outside of a
+	 * world this is the same as {@link #sharesLayer(Body)}.
+	 * 
+	 * @param a the first body.
+	 * @param b the second body.
+	 * @return true if the bodies may collide.
+	 */
+	static boolean layersCollide(Body a, Body b) {
+		return (a.collisionMask & b.layer) != 0;
+	}
+	
 	/**
 	 * Returns the tag of this body.
 	 * 
@@ -796,10 +1707,22 @@ public class Body extends Component {
 	 */
 	public Body setTag(String tag) {
 		this.tag = tag;
+		tagId = Tags.getId(tag);
+		tagBit = Tags.getBit(tagId);
 		
 		return this;
 	}
 	
+	/**
+	 * Returns the number of the tag of this body.
+	 * 
+	 * @return the number of the tag.
+	 * @see Tags#getId(String)
+	 */
+	public int getTagId() {
+		return tagId;
+	}
+	
 	/**
 	 * Returns the number of shapes in this body.
 	 * 
@@ -824,6 +1747,7 @@ public class Body extends Component {
 		}
 		
 		shapes.add(shape);
+		dirty = true;
 		return this;
 	}
 	
@@ -852,6 +1776,7 @@ public class Body extends Component {
 		for (; i < shapes.size(); i++) {
 			if (shapes.get(i) == shape) {
 				shapes.remove(i);
+				dirty = true;
 				return true;
 			}
 		}
@@ -935,11 +1860,43 @@ public class Body extends Component {
 	 * @return true if the normal lives up to the demands.
 	 */
 	public boolean oneWayCheck(float depth, Vector2f v, Vector2f n) {
+		return oneWayCheck(depth, v.x, v.y, n.x, n.y);
+	}
+	
+	/**
+	 * Does the one way check for a collision with one of the shapes
+	 * of this body. All shapes of a body share the same one way
+	 * direction, but a tile map only applies it to one way tiles.
+	 * 
+	 * @param shape the index of the shape.
+	 * @param depth the depth of the collision.
+	 * @param vx the x velocity of the other body.
+	 * @param vy the y velocity of the other body.
+	 * @param nx the x component of the normal to check.
+	 * @param ny the y component of the normal to check.
+	 * @return true if the normal lives up to the demands.
+	 */
+	boolean oneWayCheck(int shape, float depth, float vx, float vy, float nx, float ny) {
+		return oneWayCheck(depth, vx, vy, nx, ny);
+	}
+	
+	/**
+	 * Does the same check as {@link #oneWayCheck(float, Vector2f, Vector2f)},
+	 * but takes the vectors as components so no copies have to be made.
+	 * 
+	 * @param depth the depth of the collision.
+	 * @param vx the x velocity of the other body.
+	 * @param vy the y velocity of the other body.
+	 * @param nx the x component of the normal to check.
+	 * @param ny the y component of the normal to check.
+	 * @return true if the normal lives up to the demands.
+	 */
+	boolean oneWayCheck(float depth, float vx, float vy, float nx, float ny) {
 		if (leniency == 1) return true;
 		
-		float dot = n.dot(direction);
+		float dot = nx * direction.x + ny * direction.y;
 		if ((dot + 1.0f) * 0.5f >= leniency && 
-			 depth > v.dot(direction)) {
+			 depth > vx * direction.x + vy * direction.y) {
 			return true;
 		}
 		return false;
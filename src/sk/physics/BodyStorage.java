@@ -0,0 +1,195 @@
+package sk.physics;
+
+import sk.gfx.Transform;
+import sk.util.vector.Vector2f;
+
+/**
+ * The state a body needs to move, packed into flat arrays.
+ * A packed body reads and writes its velocity, force, inverted
+ * mass and flags through the storage it lives in, at the
+ * index stored in the body.
+ *
+ * A body that isn't part of a packed world keeps its state in
+ * its own fields. A world with packed storage moves all its
+ * bodies into one shared storage, so the whole world can be
+ * integrated in a single loop over the arrays.
+ *
+ * The positions stay in the transforms, since they are shared
+ * with the entity and the renderer. Where the bodies were before
+ * the last step is kept here though, so the renderer can
+ * interpolate between the steps.
+ *
+ */
+class BodyStorage {
+
+	static final int DYNAMIC = 1;
+	static final int TRIGGER = 2;
+	static final int ONLY_OVERLAP = 4;
+	static final int SLEEPING = 8;
+
+	Body[] bodies;
+	Transform[] transforms;
+	float[] velocityX;
+	float[] velocityY;
+	float[] forceX;
+	float[] forceY;
+	float[] invertedMass;
+	int[] flags;
+	// The transforms at the start of the last step
+	float[] previousX;
+	float[] previousY;
+	float[] previousRotation;
+	int size = 0;
+
+	/**
+	 * Creates a new empty storage.
+	 *
+	 * @param capacity the number of bodies there is room for to begin with.
+	 */
+	BodyStorage(int capacity) {
+		bodies = new Body[capacity];
+		transforms = new Transform[capacity];
+		velocityX = new float[capacity];
+		velocityY = new float[capacity];
+		forceX = new float[capacity];
+		forceY = new float[capacity];
+		invertedMass = new float[capacity];
+		flags = new int[capacity];
+		previousX = new float[capacity];
+		previousY = new float[capacity];
+		previousRotation = new float[capacity];
+	}
+
+	/**
+	 * Adds a body at the end of the storage, the velocity, force
+	 * and inverted mass are set to zero. The previous transform
+	 * is set to the current one.
+	 *
+	 * @param body the body to add.
+	 * @param transform the transform of the body.
+	 * @param flags the flags of the body.
+	 * @return the index of the body.
+	 */
+	int add(Body body, Transform transform, int flags) {
+		if (size == bodies.length) {
+			int capacity = size * 2;
+			Body[] b = new Body[capacity];
+			System.arraycopy(bodies, 0, b, 0, size);
+			bodies = b;
+			Transform[] t = new Transform[capacity];
+			System.arraycopy(transforms, 0, t, 0, size);
+			transforms = t;
+			velocityX = grow(velocityX, capacity);
+			velocityY = grow(velocityY, capacity);
+			forceX = grow(forceX, capacity);
+			forceY = grow(forceY, capacity);
+			invertedMass = grow(invertedMass, capacity);
+			previousX = grow(previousX, capacity);
+			previousY = grow(previousY, capacity);
+			previousRotation = grow(previousRotation, capacity);
+			int[] f = new int[capacity];
+			System.arraycopy(this.flags, 0, f, 0, size);
+			this.flags = f;
+		}
+		int i = size++;
+		bodies[i] = body;
+		transforms[i] = transform;
+		velocityX[i] = 0.0f;
+		velocityY[i] = 0.0f;
+		forceX[i] = 0.0f;
+		forceY[i] = 0.0f;
+		invertedMass[i] = 0.0f;
+		this.flags[i] = flags;
+		snapshot(i);
+		return i;
+	}
+
+	/**
+	 * Removes the body at the specified index. The last body is
+	 * moved into its place, so the order of the bodies is not kept.
+	 *
+	 * @param i the index of the body to remove.
+	 */
+	void remove(int i) {
+		int last = --size;
+		if (i != last) {
+			bodies[i] = bodies[last];
+			transforms[i] = transforms[last];
+			velocityX[i] = velocityX[last];
+			velocityY[i] = velocityY[last];
+			forceX[i] = forceX[last];
+			forceY[i] = forceY[last];
+			invertedMass[i] = invertedMass[last];
+			flags[i] = flags[last];
+			previousX[i] = previousX[last];
+			previousY[i] = previousY[last];
+			previousRotation[i] = previousRotation[last];
+			bodies[i].slot = i;
+		}
+		bodies[last] = null;
+		transforms[last] = null;
+	}
+
+	/**
+	 * Remembers the current transform of a body as its previous one.
+	 *
+	 * @param i the index of the body.
+	 */
+	void snapshot(int i) {
+		Transform t = transforms[i];
+		previousX[i] = t.position.x;
+		previousY[i] = t.position.y;
+		previousRotation[i] = t.rotation;
+	}
+
+	/**
+	 * Applies gravity and the accumulated forces to all bodies
+	 * that are awake, and moves them along their velocities. This
+	 * is the same as calling {@link Body#step(double)} on every
+	 * body, in order. The transforms are remembered first.
+	 *
+	 * @param gravity the gravity to add to the velocity of dynamic bodies.
+	 * @param delta the length of the step.
+	 * @return the number of bodies that were moved.
+	 */
+	int integrate(Vector2f gravity, double delta) {
+		float gx = gravity.x;
+		float gy = gravity.y;
+		float dt = (float) delta;
+		int integrated = 0;
+		for (int i = 0; i < size; i++) {
+			snapshot(i);
+			int f = flags[i];
+			if ((f & SLEEPING) != 0) {
+				// Only wake up if something moved the body
+				Body b = bodies[i];
+				if (!b.isCacheStale()) continue;
+				b.wake();
+				f = flags[i];
+			}
+
+			if ((f & (DYNAMIC | ONLY_OVERLAP)) == DYNAMIC) {
+				velocityX[i] = gx + velocityX[i];
+				velocityY[i] = gy + velocityY[i];
+			}
+			if ((f & (DYNAMIC | TRIGGER)) == DYNAMIC) {
+				velocityX[i] = velocityX[i] + forceX[i] * invertedMass[i];
+				velocityY[i] = velocityY[i] + forceY[i] * invertedMass[i];
+				forceX[i] = 0.0f;
+				forceY[i] = 0.0f;
+			}
+			Vector2f p = transforms[i].position;
+			p.x = p.x + velocityX[i] * dt;
+			p.y = p.y + velocityY[i] * dt;
+			bodies[i].clearCollisions();
+			integrated++;
+		}
+		return integrated;
+	}
+
+	private static float[] grow(float[] a, int size) {
+		float[] out = new float[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+}
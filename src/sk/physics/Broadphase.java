@@ -0,0 +1,110 @@
+package sk.physics;
+
+/**
+ * A broad phase keeps track of where the bodies of a world
+ * are and finds the pairs of bodies that are close enough
+ * to possibly collide. Only these pairs are passed on to
+ * the more expensive narrow phase.
+ *
+ * Which broad phase works best depends on the world.
+ * A {@link UniformGrid} is hard to beat when all bodies are
+ * about the same size, while an {@link AABBTree} handles
+ * a mix of huge and tiny bodies well.
+ *
+ */
+public interface Broadphase {
+
+	/**
+	 * Receives the candidate pairs found by a broad phase.
+	 */
+	public interface PairCallback {
+
+		/**
+		 * Called once for every pair of bodies whose bounds overlap.
+		 *
+		 * @param a the body that was added to the broad phase last.
+		 * @param b the body that was added to the broad phase first.
+		 */
+		public void pair(Body a, Body b);
+
+		/**
+		 * Called for pairs that were dropped because their layers
+		 * don't collide, before their bounds are compared. Does
+		 * nothing by default.
+		 *
+		 * @param a the first body.
+		 * @param b the second body.
+		 * @see Body#setLayer(short)
+		 */
+		public default void layerRejected(Body a, Body b) {}
+	}
+
+	/**
+	 * Receives the bodies found by a query.
+	 */
+	public interface QueryCallback {
+
+		/**
+		 * Called once for every body that was found.
+		 *
+		 * @param body the body that was found.
+		 */
+		public void found(Body body);
+	}
+
+	/**
+	 * Adds a body to the broad phase. It is placed
+	 * on the next call to {@link #update()}.
+	 *
+	 * @param body the body to add.
+	 */
+	public void add(Body body);
+
+	/**
+	 * Removes a body from the broad phase.
+	 *
+	 * @param body the body to remove.
+	 */
+	public void remove(Body body);
+
+	/**
+	 * Refreshes the bounds of all bodies and updates
+	 * the structure for the ones that have moved.
+	 */
+	public void update();
+
+	/**
+	 * Finds all pairs of bodies with overlapping bounds.
+	 * Each pair is only reported once.
+	 *
+	 * @param callback the callback to report the pairs to.
+	 */
+	public void findPairs(PairCallback callback);
+
+	/**
+	 * Finds all bodies whose bounds overlap the box. The bodies
+	 * are where they were on the last call to {@link #update()}.
+	 * Each body is only reported once.
+	 *
+	 * @param minX the left edge of the box.
+	 * @param minY the bottom edge of the box.
+	 * @param maxX the right edge of the box.
+	 * @param maxY the top edge of the box.
+	 * @param callback the callback to report the bodies to.
+	 */
+	public void query(float minX, float minY, float maxX, float maxY, QueryCallback callback);
+
+	/**
+	 * Finds all bodies whose bounds are crossed by the line
+	 * segment. The bodies are where they were on the last call
+	 * to {@link #update()}. Each body is only reported once, but
+	 * not necessarily in the order they are crossed.
+	 *
+	 * @param x0 the x coordinate of the start of the segment.
+	 * @param y0 the y coordinate of the start of the segment.
+	 * @param x1 the x coordinate of the end of the segment.
+	 * @param y1 the y coordinate of the end of the segment.
+	 * @param callback the callback to report the bodies to.
+	 */
+	public void raycast(float x0, float y0, float x1, float y1, QueryCallback callback);
+}
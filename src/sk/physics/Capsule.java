@@ -0,0 +1,71 @@
+package sk.physics;
+
+import sk.util.vector.Vector2f;
+
+/**
+ * A line with rounded ends, all the points within the radius
+ * of the line. Capsules make good characters, since they
+ * slide over the seams between tiles instead of catching
+ * on the corners.
+ * <p>
+ * The radius is scaled by the largest of the two scales,
+ * the line is scaled like any other shape.
+ * </p>
+ *
+ */
+public class Capsule extends Shape {
+	
+	/**
+	 * Creates an upright capsule centered on the body.
+	 * 
+	 * @param height the height of the capsule, including the rounded ends.
+	 * @param radius the radius of the capsule.
+	 * @throws IllegalArgumentException if the radius is 0 or lower, or 
+	 * the capsule isn't taller than it is wide.
+	 */
+	public Capsule(float height, float radius) {
+		this(end(height, radius, -1.0f), end(height, radius, 1.0f), radius);
+	}
+	
+	/**
+	 * Creates a capsule around the line between the two points.
+	 * 
+	 * @param a the first end of the line, relative to the body.
+	 * @param b the second end of the line, relative to the body.
+	 * @param radius the radius of the capsule.
+	 * @throws IllegalArgumentException if the radius is 0 or lower, or 
+	 * the two points are the same.
+	 */
+	public Capsule(Vector2f a, Vector2f b, float radius) {
+		super(new Vector2f((a.x + b.x) * 0.5f, (a.y + b.y) * 0.5f),
+				line(a, b), new Vector2f[] { normal(a, b) }, radius);
+	}
+	
+	/**
+	 * Returns one end of the line of an upright capsule.
+	 */
+	private static Vector2f end(float height, float radius, float side) {
+		if (height <= 2.0f * radius) {
+			throw new IllegalArgumentException("Capsule no taller than it is wide supplied, use a circle.");
+		}
+		return new Vector2f(0.0f, side * (0.5f * height - radius));
+	}
+	
+	/**
+	 * Returns the ends of the line, relative to the center.
+	 */
+	private static Vector2f[] line(Vector2f a, Vector2f b) {
+		float x = (a.x - b.x) * 0.5f;
+		float y = (a.y - b.y) * 0.5f;
+		if (x == 0.0f && y == 0.0f) {
+			throw new IllegalArgumentException("Capsule of zero length supplied, use a circle.");
+		}
+		return new Vector2f[] { new Vector2f(x, y), new Vector2f(-x, -y) };
+	}
+	
+	private static Vector2f normal(Vector2f a, Vector2f b) {
+		Vector2f normal = new Vector2f(a.y - b.y, b.x - a.x);
+		normal.normalise();
+		return normal;
+	}
+}
@@ -0,0 +1,38 @@
+package sk.physics;
+
+import sk.util.vector.Vector2f;
+
+/**
+ * A perfectly round shape. Circles are checked against each
+ * other with a single distance check, and against polygons
+ * along the normals of the polygon and one more axis, which
+ * is a lot cheaper than a polygon with many sides.
+ * <p>
+ * Circles stay round when they are scaled, the radius is
+ * scaled by the largest of the two scales.
+ * </p>
+ *
+ */
+public class Circle extends Shape {
+	
+	/**
+	 * Creates a circle centered on the body.
+	 * 
+	 * @param radius the radius of the circle.
+	 * @throws IllegalArgumentException if the radius is 0 or lower.
+	 */
+	public Circle(float radius) {
+		this(new Vector2f(), radius);
+	}
+	
+	/**
+	 * Creates a circle.
+	 * 
+	 * @param center the center of the circle, relative to the body.
+	 * @param radius the radius of the circle.
+	 * @throws IllegalArgumentException if the radius is 0 or lower.
+	 */
+	public Circle(Vector2f center, float radius) {
+		super(center.clone(), new Vector2f[] { new Vector2f() }, new Vector2f[0], radius);
+	}
+}
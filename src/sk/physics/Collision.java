@@ -38,6 +38,14 @@ public class Collision {
 	public float normalVelocity = 0;
 	public float tangentVelocity = 0;
 	
+	// Rounded shapes are transformed into these, they grow
+	// to fit the largest shapes tested with this collision
+	private float[] scratchVertices = new float[0];
+	private float[] scratchNormals = new float[0];
+	// Reused when solving, so solving doesn't create any vectors
+	private final Vector2f relativeVelocity = new Vector2f();
+	private final Vector2f force = new Vector2f();
+	
 	/**
 	 * Default constructor, new collision objects
 	 * shouldn't be created outside of the engines
@@ -60,6 +68,28 @@ public class Collision {
 		other = c.other;
 	}
 	
+	/**
+	 * Copies the specified collision data into this collision,
+	 * reusing the vectors of this collision.
+	 * 
+	 * @param c the collision to copy from.
+	 */
+	void set(Collision c) {
+		if (normal == null) normal = new Vector2f();
+		if (distance == null) distance = new Vector2f();
+		normal.set(c.normal);
+		distance.set(c.distance);
+		collisionDepth = c.collisionDepth;
+		normalOwner = c.normalOwner;
+		point = null;
+		a = c.a;
+		b = c.b;
+		other = c.other;
+		impactForce = 0;
+		normalVelocity = 0;
+		tangentVelocity = 0;
+	}
+	
 	/**
 	 * Fuses two arrays into one. This is used with the collision test and runs
 	 * almost every frame. Thus, it should be be well optimized. If you know of 
@@ -86,70 +116,407 @@ public class Collision {
 	 */
 	public static Collision SATtest(Shape a, Transform ta, Shape b, Transform tb) {
 		Collision c = new Collision();
-		c.distance = Vector2f.sub(
-				a.getCenter(ta),
-				b.getCenter(tb),
-				null);
+		return SATtest(a, ta, b, tb, c) ? c : null;
+	}
+	
+	/**
+	 * Does a <em>Separate Axis Theorem</em> test on the two shapes
+	 * and writes the result to the supplied collision. No objects
+	 * are created, apart from the vectors of a collision that 
+	 * has never been used before, or arrays to transform circles
+	 * and capsules into that are larger than any shape tested with
+	 * the collision before. Those are checked with {@link #roundTest}.
+	 * 
+	 * @param a the first shape you want to check collision against.
+	 * @param ta the transform of the first shape.
+	 * @param b the second shape you want to check collision against.
+	 * @param tb the transform of the second shape.
+	 * @param c the collision to write the result to.
+	 * @return true if the shapes collide, in which case the collision
+	 * holds the appropriate data for the collision.
+	 */
+	public static boolean SATtest(Shape a, Transform ta, Shape b, Transform tb, Collision c) {
+		if (a.radius != 0.0f || b.radius != 0.0f) {
+			// Both shapes go in the same arrays, b after a
+			int pointsA = a.points.length * 2;
+			int pointsB = pointsA + b.points.length * 2;
+			int normalsA = a.normals.length * 2;
+			int normalsB = normalsA + b.normals.length * 2;
+			if (c.scratchVertices.length < pointsB) {
+				c.scratchVertices = new float[pointsB];
+			}
+			if (c.scratchNormals.length < normalsB) {
+				c.scratchNormals = new float[normalsB];
+			}
+			float[] vertices = c.scratchVertices;
+			float[] normals = c.scratchNormals;
+			transform(a, ta, vertices, 0, normals, 0);
+			transform(b, tb, vertices, pointsA, normals, normalsA);
+			return roundTest(
+					vertices, 0, pointsA, normals, 0, normalsA,
+					a.getCenterX(ta), a.getCenterY(ta), a.radius == 0.0f ? 0.0f : a.getRadius(ta),
+					vertices, pointsA, pointsB, normals, normalsA, normalsB,
+					b.getCenterX(tb), b.getCenterY(tb), b.radius == 0.0f ? 0.0f : b.getRadius(tb),
+					c, ta, tb);
+		}
+		
+		float dx = a.getCenterX(ta) - b.getCenterX(tb);
+		float dy = a.getCenterY(ta) - b.getCenterY(tb);
+		
+		// The rotations are the same for all axes
+		float cosA = (float) Math.cos(ta.rotation);
+		float sinA = (float) Math.sin(ta.rotation);
+		float cosB = (float) Math.cos(tb.rotation);
+		float sinB = (float) Math.sin(tb.rotation);
 		
 		float max;
 		float min;
 		float dotDistance = 0.0f;
 		float depth = 0.0f;
 		
-		// Fuse the arrays into one
-		Vector2f[] normals = fuseArrays(a.getNormals(), b.getNormals());
+		float minDepth = Float.MAX_VALUE;
+		float normalX = 0.0f;
+		float normalY = 0.0f;
+		boolean ownedByA = true;
 		
-		Vector2f n;
-		int split = a.getNormals().length;
-
-		for (int i = 0; i < normals.length; i++) {
-			n = normals[i];
-			n = Vector2f.rotate(n, i < split ? ta.rotation : tb.rotation, null);
+		Vector2f[] normalsA = a.normals;
+		Vector2f[] normalsB = b.normals;
+		int split = normalsA.length;
+		int numNormals = split + normalsB.length;
+		
+		for (int i = 0; i < numNormals; i++) {
+			// Rotate the normal
+			float nx, ny;
+			if (i < split) {
+				Vector2f n = normalsA[i];
+				nx = n.x * cosA - n.y * sinA;
+				ny = n.x * sinA + n.y * cosA;
+			} else {
+				Vector2f n = normalsB[i - split];
+				nx = n.x * cosB - n.y * sinB;
+				ny = n.x * sinB + n.y * cosB;
+			}
 			
 			// Cast along the normal
-			if (n.dot(c.distance) < 0.0f) {
-				max = a.castAlongMax(n, ta);
-				min = -b.castAlongMin(n, tb);
+			float dot = nx * dx + ny * dy;
+			if (dot < 0.0f) {
+				max = a.castAlongMax(nx, ny, ta, cosA, sinA);
+				min = -b.castAlongMin(nx, ny, tb, cosB, sinB);
 			} else {
-				max = b.castAlongMax(n, tb);
-				min = -a.castAlongMin(n, ta);
+				max = b.castAlongMax(nx, ny, tb, cosB, sinB);
+				min = -a.castAlongMin(nx, ny, ta, cosA, sinA);
 			}
 			
-			dotDistance = Math.abs(Vector2f.dot(c.distance, n));
+			dotDistance = Math.abs(dx * nx + dy * ny);
 			// Check along the current axis
 			depth = (max + min) - dotDistance;
-						
+			
 			if (0 < depth) {
-				
-				if (depth < c.collisionDepth) {
-					c.collisionDepth = depth;
-					c.normal = n;
-
-					// Calculate the collision point
-					if (i < split) {
-						c.normalOwner = ta;
-					} else {
-						c.normalOwner = tb;
-					}
+				if (depth < minDepth) {
+					minDepth = depth;
+					normalX = nx;
+					normalY = ny;
+					ownedByA = i < split;
 				}
 			} else {
-				return null;
+				return false;
 			}
 		}
 		
 		// The normal should point from A to B
 		// Find a way to write this without if-s and I will buy you
 		// an ice-cream, seriously.
-		if (c.normalOwner == ta) {
-			if (c.normal.dot(c.distance) < 0.0f) {
-				c.normal.negate();
+		float dot = normalX * dx + normalY * dy;
+		if (ownedByA ? dot < 0.0f : dot > 0.0f) {
+			normalX = -normalX;
+			normalY = -normalY;
+		}
+		
+		if (c.normal == null) c.normal = new Vector2f();
+		if (c.distance == null) c.distance = new Vector2f();
+		c.normal.set(normalX, normalY);
+		c.distance.set(dx, dy);
+		c.collisionDepth = minDepth;
+		c.normalOwner = ownedByA ? ta : tb;
+		return true;
+	}
+	
+	/**
+	 * Does a <em>Separate Axis Theorem</em> test on two shapes, reading
+	 * the world space vertices and normals cached by the bodies instead
+	 * of transforming the shapes. The caches have to be up to date, see
+	 * {@link Body#updateCache()}.
+	 * 
+	 * @param a the first body.
+	 * @param i the index of the shape in the first body.
+	 * @param b the second body.
+	 * @param j the index of the shape in the second body.
+	 * @param c the collision to write the result to.
+	 * @return true if the shapes collide.
+	 */
+	static boolean SATtest(Body a, int i, Body b, int j, Collision c) {
+		if (a.shapeRadii[i] != 0.0f || b.shapeRadii[j] != 0.0f) {
+			return roundTest(
+					a.vertices, a.vertexOffsets[i], a.vertexOffsets[i + 1],
+					a.normals, a.normalOffsets[i], a.normalOffsets[i + 1],
+					a.centers[i * 2], a.centers[i * 2 + 1], a.shapeRadii[i],
+					b.vertices, b.vertexOffsets[j], b.vertexOffsets[j + 1],
+					b.normals, b.normalOffsets[j], b.normalOffsets[j + 1],
+					b.centers[j * 2], b.centers[j * 2 + 1], b.shapeRadii[j],
+					c, a.getTransform(), b.getTransform());
+		}
+		
+		float dx = a.centers[i * 2    ] - b.centers[j * 2    ];
+		float dy = a.centers[i * 2 + 1] - b.centers[j * 2 + 1];
+		
+		float[] verticesA = a.vertices;
+		float[] verticesB = b.vertices;
+		int startA = a.vertexOffsets[i];
+		int endA = a.vertexOffsets[i + 1];
+		int startB = b.vertexOffsets[j];
+		int endB = b.vertexOffsets[j + 1];
+		
+		float minDepth = Float.MAX_VALUE;
+		float normalX = 0.0f;
+		float normalY = 0.0f;
+		boolean ownedByA = true;
+		
+		for (int side = 0; side < 2; side++) {
+			float[] normals = side == 0 ? a.normals : b.normals;
+			int start = side == 0 ? a.normalOffsets[i] : b.normalOffsets[j];
+			int end = side == 0 ? a.normalOffsets[i + 1] : b.normalOffsets[j + 1];
+			
+			for (int n = start; n < end; n += 2) {
+				float nx = normals[n];
+				float ny = normals[n + 1];
+				
+				// Cast along the normal
+				float max = 0.0f;
+				float min = 0.0f;
+				if (nx * dx + ny * dy < 0.0f) {
+					for (int k = startA; k < endA; k += 2) {
+						max = Math.max(max, verticesA[k] * nx + verticesA[k + 1] * ny);
+					}
+					for (int k = startB; k < endB; k += 2) {
+						min = Math.min(min, verticesB[k] * nx + verticesB[k + 1] * ny);
+					}
+				} else {
+					for (int k = startB; k < endB; k += 2) {
+						max = Math.max(max, verticesB[k] * nx + verticesB[k + 1] * ny);
+					}
+					for (int k = startA; k < endA; k += 2) {
+						min = Math.min(min, verticesA[k] * nx + verticesA[k + 1] * ny);
+					}
+				}
+				
+				// Check along the current axis
+				float depth = (max - min) - Math.abs(dx * nx + dy * ny);
+				if (!(0 < depth)) return false;
+				
+				if (depth < minDepth) {
+					minDepth = depth;
+					normalX = nx;
+					normalY = ny;
+					ownedByA = side == 0;
+				}
 			}
+		}
+		
+		// The normal should point from A to B
+		float dot = normalX * dx + normalY * dy;
+		if (ownedByA ? dot < 0.0f : dot > 0.0f) {
+			normalX = -normalX;
+			normalY = -normalY;
+		}
+		
+		if (c.normal == null) c.normal = new Vector2f();
+		if (c.distance == null) c.distance = new Vector2f();
+		c.normal.set(normalX, normalY);
+		c.distance.set(dx, dy);
+		c.collisionDepth = minDepth;
+		c.normalOwner = ownedByA ? a.getTransform() : b.getTransform();
+		return true;
+	}
+	
+	/**
+	 * Checks two shapes where at least one of them is rounded. A
+	 * rounded shape is all the points within its radius of the
+	 * points of the shape, so the points are cast along each axis as
+	 * usual and the radius is added on. Two circles only need the
+	 * distance between them, everything else is checked along the
+	 * normals of the shapes and the axes from each point of a rounded
+	 * shape to the closest point of the other shape.
+	 * <p>
+	 * The vertices are relative to the center of their shape, like
+	 * in the body cache.
+	 * </p>
+	 * 
+	 * @return true if the shapes collide.
+	 */
+	static boolean roundTest(
+			float[] verticesA, int startA, int endA, float[] normalsA, int normalStartA, int normalEndA,
+			float ax, float ay, float radiusA,
+			float[] verticesB, int startB, int endB, float[] normalsB, int normalStartB, int normalEndB,
+			float bx, float by, float radiusB,
+			Collision c, Transform ta, Transform tb) {
+		float dx = ax - bx;
+		float dy = ay - by;
+		
+		float minDepth = Float.MAX_VALUE;
+		float normalX = 0.0f;
+		float normalY = 0.0f;
+		boolean ownedByA = true;
+		
+		if (endA - startA == 2 && endB - startB == 2 && radiusA != 0.0f && radiusB != 0.0f) {
+			// Two circles
+			float x = dx + verticesA[startA] - verticesB[startB];
+			float y = dy + verticesA[startA + 1] - verticesB[startB + 1];
+			float reach = radiusA + radiusB;
+			float distance = x * x + y * y;
+			if (!(distance < reach * reach)) return false;
+			distance = (float) Math.sqrt(distance);
+			minDepth = reach - distance;
+			normalX = distance == 0.0f ? 0.0f : x / distance;
+			normalY = distance == 0.0f ? 1.0f : y / distance;
+		} else {
+			for (int side = 0; side < 4; side++) {
+				if (side < 2) {
+					float[] normals = side == 0 ? normalsA : normalsB;
+					int start = side == 0 ? normalStartA : normalStartB;
+					int end = side == 0 ? normalEndA : normalEndB;
+					for (int n = start; n < end; n += 2) {
+						float nx = normals[n];
+						float ny = normals[n + 1];
+						float depth = overlap(nx, ny, dx, dy,
+								verticesA, startA, endA, radiusA,
+								verticesB, startB, endB, radiusB);
+						if (!(0 < depth)) return false;
+						if (depth < minDepth) {
+							minDepth = depth;
+							normalX = nx;
+							normalY = ny;
+							ownedByA = side == 0;
+						}
+					}
+					continue;
+				}
+				
+				// From the points of a rounded shape to the closest point of the other
+				boolean fromA = side == 2;
+				if ((fromA ? radiusA : radiusB) == 0.0f) continue;
+				float[] from = fromA ? verticesA : verticesB;
+				float[] to = fromA ? verticesB : verticesA;
+				int fromStart = fromA ? startA : startB;
+				int fromEnd = fromA ? endA : endB;
+				int toStart = fromA ? startB : startA;
+				int toEnd = fromA ? endB : endA;
+				// Where the other shape is, relative to this one
+				float offsetX = fromA ? -dx : dx;
+				float offsetY = fromA ? -dy : dy;
+				for (int k = fromStart; k < fromEnd; k += 2) {
+					float closest = Float.MAX_VALUE;
+					float nx = 0.0f;
+					float ny = 0.0f;
+					for (int m = toStart; m < toEnd; m += 2) {
+						float x = from[k] - to[m] - offsetX;
+						float y = from[k + 1] - to[m + 1] - offsetY;
+						float distance = x * x + y * y;
+						if (distance < closest) {
+							closest = distance;
+							nx = x;
+							ny = y;
+						}
+					}
+					if (closest < 1e-12f) continue;
+					float length = (float) Math.sqrt(closest);
+					nx /= length;
+					ny /= length;
+					float depth = overlap(nx, ny, dx, dy,
+							verticesA, startA, endA, radiusA,
+							verticesB, startB, endB, radiusB);
+					if (!(0 < depth)) return false;
+					if (depth < minDepth) {
+						minDepth = depth;
+						normalX = nx;
+						normalY = ny;
+						ownedByA = fromA;
+					}
+				}
+			}
+			
+			// Concentric circle and point, or the like
+			if (minDepth == Float.MAX_VALUE) {
+				minDepth = radiusA + radiusB;
+				normalX = 0.0f;
+				normalY = 1.0f;
+			}
+			
+			// The normal should point from A to B
+			float dot = normalX * dx + normalY * dy;
+			if (ownedByA ? dot < 0.0f : dot > 0.0f) {
+				normalX = -normalX;
+				normalY = -normalY;
+			}
+		}
+		
+		if (c.normal == null) c.normal = new Vector2f();
+		if (c.distance == null) c.distance = new Vector2f();
+		c.normal.set(normalX, normalY);
+		c.distance.set(dx, dy);
+		c.collisionDepth = minDepth;
+		c.normalOwner = ownedByA ? ta : tb;
+		return true;
+	}
+	
+	/**
+	 * Returns how far two shapes overlap along an axis.
+	 */
+	private static float overlap(float nx, float ny, float dx, float dy,
+			float[] verticesA, int startA, int endA, float radiusA,
+			float[] verticesB, int startB, int endB, float radiusB) {
+		float max = 0.0f;
+		float min = 0.0f;
+		if (nx * dx + ny * dy < 0.0f) {
+			for (int k = startA; k < endA; k += 2) {
+				max = Math.max(max, verticesA[k] * nx + verticesA[k + 1] * ny);
+			}
+			for (int k = startB; k < endB; k += 2) {
+				min = Math.min(min, verticesB[k] * nx + verticesB[k + 1] * ny);
+			}
+			max += radiusA;
+			min -= radiusB;
 		} else {
-			if (c.normal.dot(c.distance) > 0.0f) {
-				c.normal.negate();
+			for (int k = startB; k < endB; k += 2) {
+				max = Math.max(max, verticesB[k] * nx + verticesB[k + 1] * ny);
+			}
+			for (int k = startA; k < endA; k += 2) {
+				min = Math.min(min, verticesA[k] * nx + verticesA[k + 1] * ny);
 			}
+			max += radiusB;
+			min -= radiusA;
+		}
+		return (max - min) - Math.abs(dx * nx + dy * ny);
+	}
+	
+	/**
+	 * Scales and rotates the points and normals of a shape into the
+	 * arrays, the points stay relative to the center of the shape.
+	 */
+	private static void transform(Shape shape, Transform t,
+			float[] vertices, int vertexStart, float[] normals, int normalStart) {
+		float c = (float) Math.cos(t.rotation);
+		float s = (float) Math.sin(t.rotation);
+		for (int i = 0; i < shape.points.length; i++) {
+			float x = shape.points[i].x * t.scale.x;
+			float y = shape.points[i].y * t.scale.y;
+			vertices[vertexStart + i * 2    ] = x * c - y * s;
+			vertices[vertexStart + i * 2 + 1] = x * s + y * c;
+		}
+		for (int i = 0; i < shape.normals.length; i++) {
+			Vector2f n = shape.normals[i];
+			normals[normalStart + i * 2    ] = n.x * c - n.y * s;
+			normals[normalStart + i * 2 + 1] = n.x * s + n.y * c;
 		}
-		return c;
 	}
 	
 	/**
@@ -161,25 +528,13 @@ public class Collision {
 	public void solve(float delta) {
 		// If both bodies are dynamic
 		boolean dynamicCollision = a.isDynamic();
-			
-		// The normal should point from the static body
-		if (a.getTransform() == normalOwner) {
-			normal.negate();
-		}
 		
-		// Move it back
-		Vector2f reverse;
-		if (dynamicCollision) {
-			reverse = (Vector2f) normal.clone().scale(0.5f * (collisionDepth - INACCURACY));
-			a.getTransform().position.sub(reverse);
-		} else {
-			reverse = (Vector2f) normal.clone().scale(collisionDepth - INACCURACY);
-		}
-		b.getTransform().position.add(reverse);
+		separate();
 		
 		// Check the relative velocity
-		Vector2f relativeVelocity = new Vector2f();
-		Vector2f.sub(a.getNextVelocity(), b.getNextVelocity(), relativeVelocity);
+		relativeVelocity.set(
+				a.getNextVelocityX() - b.getNextVelocityX(),
+				a.getNextVelocityY() - b.getNextVelocityY());
 		
 		normalVelocity = Vector2f.dot(relativeVelocity, normal);
 		
@@ -193,12 +548,12 @@ public class Collision {
 		float bounceImpulse = normalVelocity * (bounce + 1.0f);
 		if (dynamicCollision) {
 			bounceImpulse /= a.getInvertedMass() + b.getInvertedMass();
-			Vector2f bounceForce = normal.clone().scale(bounceImpulse);
+			Vector2f bounceForce = force.set(normal).scale(bounceImpulse);
 			b.addForce(bounceForce.scale(a.getMass()));
 			a.addForce(bounceForce.scale(-a.getInvertedMass() * b.getMass()));
 		} else {
 			bounceImpulse *= b.getMass();
-			Vector2f bounceForce = normal.clone().scale(bounceImpulse);
+			Vector2f bounceForce = force.set(normal).scale(bounceImpulse);
 			b.addForce(bounceForce);
 		}
 		
@@ -211,7 +566,8 @@ public class Collision {
 		float frictionImpulse = (float) Math.abs(bounceImpulse * mu * delta);
 		float totalMass = dynamicCollision ? a.getMass() + b.getMass() : b.getMass();
 		// Super fast manual rotation and creation
-		Vector2f tangent = new Vector2f(normal.y, -normal.x);
+		Vector2f tangent = force;
+		tangent.set(normal.y, -normal.x);
 		// Make sure we're slowing down in the right direction
 		tangentVelocity = relativeVelocity.dot(tangent);
 		if (0.0f > tangentVelocity) {
@@ -236,4 +592,27 @@ public class Collision {
 			b.addForce(tangent);									
 		}
 	}
+	
+	/**
+	 * Turns the normal so it points from body a to body b,
+	 * and pushes the bodies apart so they only just overlap.
+	 * If both bodies are dynamic they are moved half the
+	 * way each, otherwise only b is moved.
+	 */
+	void separate() {
+		// The normal should point from the static body
+		if (a.getTransform() == normalOwner) {
+			normal.negate();
+		}
+		
+		// Move it back
+		Vector2f reverse;
+		if (a.isDynamic()) {
+			reverse = force.set(normal).scale(0.5f * (collisionDepth - INACCURACY));
+			a.getTransform().position.sub(reverse);
+		} else {
+			reverse = force.set(normal).scale(collisionDepth - INACCURACY);
+		}
+		b.getTransform().position.add(reverse);
+	}
 }
@@ -0,0 +1,84 @@
+package sk.physics;
+
+/**
+ * A list of contacts found by the narrow phase, together
+ * with which pair and which shapes they belong to. The
+ * collision objects are kept between steps and reused.
+ *
+ */
+class ContactBuffer {
+	
+	Collision[] contacts = new Collision[16];
+	// The index of the body pair each contact belongs to
+	int[] pairs = new int[16];
+	// Which shapes collided, as shapeA * numShapesB + shapeB
+	int[] shapes = new int[16];
+	int size = 0;
+	
+	// The shapes of a tile map near the other body of the pair
+	int[] tiles = new int[16];
+	int numTiles = 0;
+	
+	// Counted by the narrow phase, collected by the world for its stats
+	int boundsRejections = 0;
+	int satTests = 0;
+	
+	/**
+	 * Empties the buffer, the collisions are kept for reuse.
+	 */
+	void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Returns the collision the next contact should be written to.
+	 * It is not part of the buffer until {@link #commit(int, int)}
+	 * is called.
+	 * 
+	 * @return a collision to write to.
+	 */
+	Collision next() {
+		if (size == contacts.length) {
+			Collision[] c = new Collision[size * 2];
+			System.arraycopy(contacts, 0, c, 0, size);
+			contacts = c;
+			int[] p = new int[size * 2];
+			System.arraycopy(pairs, 0, p, 0, size);
+			pairs = p;
+			int[] s = new int[size * 2];
+			System.arraycopy(shapes, 0, s, 0, size);
+			shapes = s;
+		}
+		if (contacts[size] == null) {
+			contacts[size] = new Collision();
+		}
+		return contacts[size];
+	}
+	
+	/**
+	 * Adds the collision last returned by {@link #next()} to the buffer.
+	 * 
+	 * @param pair the index of the body pair.
+	 * @param shape which shapes collided.
+	 */
+	void commit(int pair, int shape) {
+		pairs[size] = pair;
+		shapes[size] = shape;
+		size++;
+	}
+	
+	/**
+	 * Finds the shapes of a tile map that cover the tiles the
+	 * bounds of another body overlap, into {@link #tiles}.
+	 * 
+	 * @param map the tile map.
+	 * @param other the body touching the map.
+	 */
+	void findTiles(TileMapBody map, Body other) {
+		numTiles = map.findShapes(other.minX, other.minY, other.maxX, other.maxY, tiles);
+		if (tiles.length < numTiles) {
+			tiles = new int[numTiles * 2];
+			numTiles = map.findShapes(other.minX, other.minY, other.maxX, other.maxY, tiles);
+		}
+	}
+}
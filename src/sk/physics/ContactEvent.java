@@ -0,0 +1,55 @@
+package sk.physics;
+
+/**
+ * Two bodies that started touching, kept touching or stopped
+ * touching. The events are reused by the world on the next
+ * update, hold on to the bodies, not the event, if you need
+ * them for longer.
+ *
+ * @see World#getBeginContacts()
+ * @see World#getStayContacts()
+ * @see World#getEndContacts()
+ *
+ */
+public class ContactEvent {
+
+	Body a, b;
+
+	/**
+	 * Returns the first body.
+	 *
+	 * @return the first body.
+	 */
+	public Body getA() {
+		return a;
+	}
+
+	/**
+	 * Returns the second body.
+	 *
+	 * @return the second body.
+	 */
+	public Body getB() {
+		return b;
+	}
+
+	/**
+	 * Returns the body that isn't the specified one.
+	 *
+	 * @param body one of the bodies.
+	 * @return the other body.
+	 */
+	public Body getOther(Body body) {
+		return body == a ? b : a;
+	}
+
+	/**
+	 * Returns whether or not the body is one of the two.
+	 *
+	 * @param body the body to look for.
+	 * @return true if the body is part of the event.
+	 */
+	public boolean involves(Body body) {
+		return body == a || body == b;
+	}
+}
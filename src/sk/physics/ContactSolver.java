@@ -0,0 +1,536 @@
+package sk.physics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Solves the contacts of a world with sequential impulses. Each
+ * contact is visited a number of times every step, and each visit
+ * nudges the velocities of the two bodies a little closer to not
+ * moving into each other. This lets the impulses spread through
+ * a whole stack of bodies, instead of only the contact that
+ * happened to be solved last.
+ *
+ * The contacts are kept between steps in manifolds, one for
+ * each pair of touching bodies, along with the impulses that
+ * were needed to keep them apart. Each step starts out by
+ * applying the impulses from the last step, so a resting stack
+ * is close to solved before the first iteration.
+ *
+ */
+class ContactSolver {
+
+	/**
+	 * The contacts between two bodies, one for each pair of
+	 * shapes that touch.
+	 */
+	static class Manifold {
+		Body a, b;
+		long key;
+		// The step the manifold was last touched
+		int step;
+		int size = 0;
+		// Which shapes collided, as shapeA * numShapesB + shapeB
+		int[] shapes = new int[2];
+		int[] steps = new int[2];
+		// The normal points from a to b
+		float[] normalX = new float[2];
+		float[] normalY = new float[2];
+		// The accumulated impulses along the normal and the tangent
+		float[] normalImpulse = new float[2];
+		float[] tangentImpulse = new float[2];
+		// The speed the bodies should part with after the bounce
+		float[] bounce = new float[2];
+
+		/**
+		 * Returns the contact for the pair of shapes, the contact
+		 * is created if it doesn't exist.
+		 */
+		int get(int shape) {
+			for (int i = 0; i < size; i++) {
+				if (shapes[i] == shape) return i;
+			}
+			if (size == shapes.length) {
+				int capacity = size * 2;
+				shapes = grow(shapes, capacity);
+				steps = grow(steps, capacity);
+				normalX = grow(normalX, capacity);
+				normalY = grow(normalY, capacity);
+				normalImpulse = grow(normalImpulse, capacity);
+				tangentImpulse = grow(tangentImpulse, capacity);
+				bounce = grow(bounce, capacity);
+			}
+			int i = size++;
+			shapes[i] = shape;
+			normalImpulse[i] = 0.0f;
+			tangentImpulse[i] = 0.0f;
+			bounce[i] = 0.0f;
+			return i;
+		}
+
+		/**
+		 * Drops all contacts that weren't touched in the specified step.
+		 */
+		void prune(int step) {
+			int j = 0;
+			for (int i = 0; i < size; i++) {
+				if (steps[i] != step) continue;
+				shapes[j] = shapes[i];
+				steps[j] = steps[i];
+				normalX[j] = normalX[i];
+				normalY[j] = normalY[i];
+				normalImpulse[j] = normalImpulse[i];
+				tangentImpulse[j] = tangentImpulse[i];
+				bounce[j] = bounce[i];
+				j++;
+			}
+			size = j;
+		}
+	}
+
+	// Slower than this, the bodies don't bounce. This keeps
+	// resting contacts from jittering.
+	static final float BOUNCE_THRESHOLD = 1.0f;
+
+	private static final int NULL = -1;
+
+	private Manifold[] manifolds = new Manifold[16];
+	private int numManifolds = 0;
+	// Manifolds that were dropped, they are reused
+	private Manifold[] free = new Manifold[16];
+	private int numFree = 0;
+
+	// Open addressed hash from the body pair to the manifold index
+	private long[] keys = new long[64];
+	private int[] slots = new int[64];
+
+	private int step = 0;
+
+	/**
+	 * Creates a new solver without any contacts.
+	 */
+	ContactSolver() {
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = NULL;
+		}
+	}
+
+	/**
+	 * Starts a new step, contacts that aren't added again
+	 * before the next solve are forgotten.
+	 */
+	void begin() {
+		step++;
+	}
+
+	/**
+	 * Adds a contact. The bodies should already have been
+	 * pushed apart, so the normal points from a to b.
+	 *
+	 * @param c the collision.
+	 * @param shape which shapes collided, as shapeA * numShapesB + shapeB.
+	 */
+	void add(Collision c, int shape) {
+		Manifold m = get(c.a, c.b);
+		m.a = c.a;
+		m.b = c.b;
+		m.step = step;
+		int i = m.get(shape);
+		m.steps[i] = step;
+		m.normalX[i] = c.normal.x;
+		m.normalY[i] = c.normal.y;
+	}
+
+	/**
+	 * Solves all contacts added since {@link #begin()}.
+	 *
+	 * @param iterations the number of times to visit each contact.
+	 */
+	void solve(int iterations) {
+		prune();
+
+		// Apply the forces now, so the solver sees the velocities
+		// the bodies will have during the next step
+		for (int m = 0; m < numManifolds; m++) {
+			applyForce(manifolds[m].a);
+			applyForce(manifolds[m].b);
+		}
+
+		for (int m = 0; m < numManifolds; m++) {
+			prepare(manifolds[m]);
+		}
+		for (int m = 0; m < numManifolds; m++) {
+			warmStart(manifolds[m]);
+		}
+
+		for (int k = 0; k < iterations; k++) {
+			for (int m = 0; m < numManifolds; m++) {
+				solve(manifolds[m]);
+			}
+		}
+	}
+
+	/**
+	 * Forgets all contacts.
+	 */
+	void clear() {
+		for (int m = 0; m < numManifolds; m++) {
+			release(manifolds[m]);
+			manifolds[m] = null;
+		}
+		numManifolds = 0;
+		rehash(slots.length);
+	}
+
+	/**
+	 * Forgets all contacts of a body that left the world.
+	 *
+	 * @param body the body.
+	 */
+	void remove(Body body) {
+		int j = 0;
+		for (int i = 0; i < numManifolds; i++) {
+			Manifold m = manifolds[i];
+			if (m.a == body || m.b == body) {
+				release(m);
+			} else {
+				manifolds[j++] = m;
+			}
+		}
+		for (int i = j; i < numManifolds; i++) {
+			manifolds[i] = null;
+		}
+		if (j != numManifolds) {
+			numManifolds = j;
+			rehash(slots.length);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes {@link #snapshot(ByteBuffer, World)} writes.
+	 *
+	 * @param world the world, with the indices of its bodies up to date.
+	 */
+	int snapshotSize(World world) {
+		int size = 8;
+		for (int m = 0; m < numManifolds; m++) {
+			if (!isInWorld(manifolds[m], world)) continue;
+			size += 16 + manifolds[m].size * 28;
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the manifolds to the buffer, in order. Manifolds of
+	 * bodies that aren't in the world anymore are left out.
+	 *
+	 * @param buffer the buffer to write to.
+	 * @param world the world, with the indices of its bodies up to date.
+	 */
+	void snapshot(ByteBuffer buffer, World world) {
+		int count = 0;
+		for (int k = 0; k < numManifolds; k++) {
+			if (isInWorld(manifolds[k], world)) count++;
+		}
+		buffer.putInt(step);
+		buffer.putInt(count);
+		for (int k = 0; k < numManifolds; k++) {
+			Manifold m = manifolds[k];
+			if (!isInWorld(m, world)) continue;
+			buffer.putInt(m.a.index);
+			buffer.putInt(m.b.index);
+			buffer.putInt(m.step);
+			buffer.putInt(m.size);
+			for (int i = 0; i < m.size; i++) {
+				buffer.putInt(m.shapes[i]);
+				buffer.putInt(m.steps[i]);
+				buffer.putFloat(m.normalX[i]);
+				buffer.putFloat(m.normalY[i]);
+				buffer.putFloat(m.normalImpulse[i]);
+				buffer.putFloat(m.tangentImpulse[i]);
+				buffer.putFloat(m.bounce[i]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces all the manifolds with the ones written by
+	 * {@link #snapshot(ByteBuffer, World)}.
+	 *
+	 * @param buffer the buffer to read from.
+	 * @param world the world to look up the bodies in.
+	 * @throws IllegalArgumentException if a body isn't in the world.
+	 */
+	void restore(ByteBuffer buffer, World world) {
+		clear();
+		step = buffer.getInt();
+		int count = buffer.getInt();
+		for (int k = 0; k < count; k++) {
+			Body a = world.getBody(buffer.getInt());
+			Body b = world.getBody(buffer.getInt());
+			if (a == null || b == null) {
+				throw new IllegalArgumentException("Snapshot of another world supplied.");
+			}
+			Manifold m = get(a, b);
+			m.a = a;
+			m.b = b;
+			m.step = buffer.getInt();
+			int size = buffer.getInt();
+			for (int n = 0; n < size; n++) {
+				int i = m.get(buffer.getInt());
+				m.steps[i] = buffer.getInt();
+				m.normalX[i] = buffer.getFloat();
+				m.normalY[i] = buffer.getFloat();
+				m.normalImpulse[i] = buffer.getFloat();
+				m.tangentImpulse[i] = buffer.getFloat();
+				m.bounce[i] = buffer.getFloat();
+			}
+		}
+	}
+
+	/**
+	 * Moves the buffer past the manifolds written by
+	 * {@link #snapshot(ByteBuffer, World)}, without restoring them.
+	 *
+	 * @param buffer the buffer to read from.
+	 * @param world the world to look up the bodies in.
+	 * @throws IllegalArgumentException if a body isn't in the world.
+	 */
+	static void check(ByteBuffer buffer, World world) {
+		buffer.getInt();
+		int count = buffer.getInt();
+		for (int k = 0; k < count; k++) {
+			if (world.getBody(buffer.getInt()) == null || world.getBody(buffer.getInt()) == null) {
+				throw new IllegalArgumentException("Snapshot of another world supplied.");
+			}
+			buffer.getInt();
+			int size = buffer.getInt();
+			// The shape and step, and five floats for each contact
+			buffer.position(buffer.position() + size * 28);
+		}
+	}
+
+	private static boolean isInWorld(Manifold m, World world) {
+		return world.isInWorld(m.a) && world.isInWorld(m.b);
+	}
+
+	/**
+	 * Adds the accumulated force of a body to its velocity.
+	 */
+	private static void applyForce(Body body) {
+		if (!body.isDynamic()) return;
+		body.applyForce();
+	}
+
+	private static float invertedMass(Body body) {
+		return body.isDynamic() ? body.getInvertedMass() : 0.0f;
+	}
+
+	/**
+	 * Works out how hard the bodies should bounce, from the
+	 * velocities they had before anything was solved.
+	 */
+	private static void prepare(Manifold m) {
+		Body a = m.a;
+		Body b = m.b;
+		float rx = a.getVelocityX() - b.getVelocityX();
+		float ry = a.getVelocityY() - b.getVelocityY();
+		float restitution = Math.min(a.getBounce(), b.getBounce());
+
+		for (int i = 0; i < m.size; i++) {
+			float approach = rx * m.normalX[i] + ry * m.normalY[i];
+			boolean bounced = m.bounce[i] != 0.0f;
+			m.bounce[i] = approach > BOUNCE_THRESHOLD ? restitution * approach : 0.0f;
+
+			// The impulses of an impact say nothing about the next
+			// step, only resting contacts are warm started
+			if (bounced || m.bounce[i] != 0.0f) {
+				m.normalImpulse[i] = 0.0f;
+				m.tangentImpulse[i] = 0.0f;
+			}
+		}
+	}
+
+	/**
+	 * Applies the impulses from the last step.
+	 */
+	private static void warmStart(Manifold m) {
+		Body a = m.a;
+		Body b = m.b;
+		float vax = a.getVelocityX();
+		float vay = a.getVelocityY();
+		float vbx = b.getVelocityX();
+		float vby = b.getVelocityY();
+		float massA = invertedMass(a);
+		float massB = invertedMass(b);
+
+		for (int i = 0; i < m.size; i++) {
+			float nx = m.normalX[i];
+			float ny = m.normalY[i];
+			float px = nx * m.normalImpulse[i] + ny * m.tangentImpulse[i];
+			float py = ny * m.normalImpulse[i] - nx * m.tangentImpulse[i];
+			vax -= px * massA;
+			vay -= py * massA;
+			vbx += px * massB;
+			vby += py * massB;
+		}
+		a.putVelocity(vax, vay);
+		b.putVelocity(vbx, vby);
+	}
+
+	/**
+	 * Runs one iteration over the contacts of a manifold.
+	 */
+	private static void solve(Manifold m) {
+		Body a = m.a;
+		Body b = m.b;
+		float massA = invertedMass(a);
+		float massB = invertedMass(b);
+		float totalMass = massA + massB;
+		if (totalMass == 0.0f) return;
+		float mu = Math.min(a.getFriction(), b.getFriction());
+		float vax = a.getVelocityX();
+		float vay = a.getVelocityY();
+		float vbx = b.getVelocityX();
+		float vby = b.getVelocityY();
+
+		for (int i = 0; i < m.size; i++) {
+			float nx = m.normalX[i];
+			float ny = m.normalY[i];
+
+			// Along the normal, the bodies may only push each other apart
+			float rx = vax - vbx;
+			float ry = vay - vby;
+			float impulse = (rx * nx + ry * ny + m.bounce[i]) / totalMass;
+			float old = m.normalImpulse[i];
+			m.normalImpulse[i] = Math.max(old + impulse, 0.0f);
+			impulse = m.normalImpulse[i] - old;
+			vax -= nx * impulse * massA;
+			vay -= ny * impulse * massA;
+			vbx += nx * impulse * massB;
+			vby += ny * impulse * massB;
+
+			// Friction can't be stronger than the normal impulse allows
+			if (mu == 0.0f) continue;
+			float tx = ny;
+			float ty = -nx;
+			rx = vax - vbx;
+			ry = vay - vby;
+			impulse = (rx * tx + ry * ty) / totalMass;
+			float max = mu * m.normalImpulse[i];
+			old = m.tangentImpulse[i];
+			m.tangentImpulse[i] = Math.max(-max, Math.min(old + impulse, max));
+			impulse = m.tangentImpulse[i] - old;
+			vax -= tx * impulse * massA;
+			vay -= ty * impulse * massA;
+			vbx += tx * impulse * massB;
+			vby += ty * impulse * massB;
+		}
+		a.putVelocity(vax, vay);
+		b.putVelocity(vbx, vby);
+	}
+
+	/**
+	 * Drops the manifolds and contacts that weren't touched this step.
+	 */
+	private void prune() {
+		int j = 0;
+		for (int i = 0; i < numManifolds; i++) {
+			Manifold m = manifolds[i];
+			if (m.step == step) {
+				m.prune(step);
+				manifolds[j++] = m;
+			} else {
+				release(m);
+			}
+		}
+		for (int i = j; i < numManifolds; i++) {
+			manifolds[i] = null;
+		}
+		if (j != numManifolds) {
+			numManifolds = j;
+			rehash(slots.length);
+		}
+	}
+
+	private void release(Manifold m) {
+		m.a = null;
+		m.b = null;
+		m.size = 0;
+		if (numFree == free.length) {
+			Manifold[] grown = new Manifold[numFree * 2];
+			System.arraycopy(free, 0, grown, 0, numFree);
+			free = grown;
+		}
+		free[numFree++] = m;
+	}
+
+	/**
+	 * Looks up the manifold of the two bodies, creating it if
+	 * it doesn't exist.
+	 */
+	private Manifold get(Body a, Body b) {
+		long key = a.id < b.id ?
+				((long) a.id << 32) | (b.id & 0xFFFFFFFFL) :
+				((long) b.id << 32) | (a.id & 0xFFFFFFFFL);
+		int mask = slots.length - 1;
+		int i = hash(key) & mask;
+		while (slots[i] != NULL) {
+			if (keys[i] == key) return manifolds[slots[i]];
+			i = (i + 1) & mask;
+		}
+
+		Manifold m = numFree != 0 ? free[--numFree] : new Manifold();
+		m.key = key;
+		if (numManifolds == manifolds.length) {
+			Manifold[] grown = new Manifold[numManifolds * 2];
+			System.arraycopy(manifolds, 0, grown, 0, numManifolds);
+			manifolds = grown;
+		}
+		keys[i] = key;
+		slots[i] = numManifolds;
+		manifolds[numManifolds++] = m;
+
+		// Keep the load factor below a half
+		if (numManifolds * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return m;
+	}
+
+	private void rehash(int capacity) {
+		if (capacity != slots.length) {
+			keys = new long[capacity];
+			slots = new int[capacity];
+		}
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = NULL;
+		}
+		int mask = capacity - 1;
+		for (int m = 0; m < numManifolds; m++) {
+			long key = manifolds[m].key;
+			int i = hash(key) & mask;
+			while (slots[i] != NULL) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			slots[i] = m;
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int[] grow(int[] a, int size) {
+		int[] out = new int[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+
+	private static float[] grow(float[] a, int size) {
+		float[] out = new float[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+}
@@ -0,0 +1,352 @@
+package sk.physics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Remembers which pairs of bodies touch, so the world can tell
+ * when they start and stop touching. The events of all the steps
+ * in one update are collected together, so nothing is missed when
+ * the world takes more than one step per frame.
+ *
+ * Bodies that rest against each other aren't checked by the world,
+ * their pairs are kept as they are until one of them wakes up.
+ *
+ */
+class ContactTracker {
+
+	private static final int NULL = -1;
+	// The step of a pair where one of the bodies left the world
+	private static final int REMOVED = -1;
+
+	// The touching pairs
+	private Body[] pairsA = new Body[16];
+	private Body[] pairsB = new Body[16];
+	private long[] pairKeys = new long[16];
+	// The step each pair was last found touching
+	private int[] steps = new int[16];
+	// The update each pair started touching in
+	private int[] updates = new int[16];
+	private int size = 0;
+
+	// Open addressed hash from the body pair to the pair index
+	private long[] keys = new long[64];
+	private int[] slots = new int[64];
+
+	private int step = 0;
+	private int update = 0;
+
+	ArrayList<ContactEvent> begins = new ArrayList<>();
+	ArrayList<ContactEvent> stays = new ArrayList<>();
+	ArrayList<ContactEvent> ends = new ArrayList<>();
+	// All events ever handed out, they are reused every update
+	private ArrayList<ContactEvent> pool = new ArrayList<>();
+	private int used = 0;
+
+	/**
+	 * Creates a new tracker without any pairs.
+	 */
+	ContactTracker() {
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = NULL;
+		}
+	}
+
+	/**
+	 * Forgets the events of the last update.
+	 */
+	void beginUpdate() {
+		update++;
+		begins.clear();
+		stays.clear();
+		ends.clear();
+		used = 0;
+	}
+
+	/**
+	 * Starts a new step, pairs that aren't touched before
+	 * the step ends have stopped touching.
+	 */
+	void beginStep() {
+		step++;
+	}
+
+	/**
+	 * Marks the two bodies as touching in this step.
+	 *
+	 * @param a the first body.
+	 * @param b the second body.
+	 */
+	void touch(Body a, Body b) {
+		long key = a.id < b.id ?
+				((long) a.id << 32) | (b.id & 0xFFFFFFFFL) :
+				((long) b.id << 32) | (a.id & 0xFFFFFFFFL);
+		int mask = slots.length - 1;
+		int i = hash(key) & mask;
+		while (slots[i] != NULL) {
+			if (keys[i] == key) {
+				steps[slots[i]] = step;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (size == pairsA.length) {
+			int capacity = size * 2;
+			Body[] grownA = new Body[capacity];
+			Body[] grownB = new Body[capacity];
+			System.arraycopy(pairsA, 0, grownA, 0, size);
+			System.arraycopy(pairsB, 0, grownB, 0, size);
+			pairsA = grownA;
+			pairsB = grownB;
+			long[] grownKeys = new long[capacity];
+			System.arraycopy(pairKeys, 0, grownKeys, 0, size);
+			pairKeys = grownKeys;
+			steps = grow(steps, capacity);
+			updates = grow(updates, capacity);
+		}
+		keys[i] = key;
+		slots[i] = size;
+		pairsA[size] = a;
+		pairsB[size] = b;
+		pairKeys[size] = key;
+		steps[size] = step;
+		updates[size] = update;
+		size++;
+		begins.add(event(a, b));
+
+		// Keep the load factor below a half
+		if (size * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+	}
+
+	/**
+	 * Ends the step, the pairs that weren't touched have stopped
+	 * touching, unless they're resting against each other.
+	 */
+	void endStep() {
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			Body a = pairsA[i];
+			Body b = pairsB[i];
+			if (steps[i] != step && (steps[i] == REMOVED || !isResting(a, b))) {
+				ends.add(event(a, b));
+				continue;
+			}
+			pairsA[j] = a;
+			pairsB[j] = b;
+			pairKeys[j] = pairKeys[i];
+			steps[j] = step;
+			updates[j] = updates[i];
+			j++;
+		}
+		for (int i = j; i < size; i++) {
+			pairsA[i] = null;
+			pairsB[i] = null;
+		}
+		if (j != size) {
+			size = j;
+			rehash(slots.length);
+		}
+	}
+
+	/**
+	 * Ends the update, all pairs that were touching before
+	 * it and still are are reported as staying.
+	 */
+	void endUpdate() {
+		for (int i = 0; i < size; i++) {
+			if (updates[i] != update) {
+				stays.add(event(pairsA[i], pairsB[i]));
+			}
+		}
+	}
+
+	/**
+	 * Ends all the pairs of a body that left the world,
+	 * they are reported at the end of the next step.
+	 *
+	 * @param body the body.
+	 */
+	void remove(Body body) {
+		for (int i = 0; i < size; i++) {
+			if (pairsA[i] == body || pairsB[i] == body) {
+				steps[i] = REMOVED;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes {@link #snapshot(ByteBuffer, World)} writes.
+	 *
+	 * @param world the world, with the indices of its bodies up to date.
+	 */
+	int snapshotSize(World world) {
+		return 12 + count(world) * 16;
+	}
+
+	/**
+	 * Writes the touching pairs to the buffer, in order. Pairs of
+	 * bodies that aren't in the world anymore are left out, their
+	 * end events are not carried over.
+	 *
+	 * @param buffer the buffer to write to.
+	 * @param world the world, with the indices of its bodies up to date.
+	 */
+	void snapshot(ByteBuffer buffer, World world) {
+		buffer.putInt(step);
+		buffer.putInt(update);
+		buffer.putInt(count(world));
+		for (int i = 0; i < size; i++) {
+			if (!world.isInWorld(pairsA[i]) || !world.isInWorld(pairsB[i])) continue;
+			buffer.putInt(pairsA[i].index);
+			buffer.putInt(pairsB[i].index);
+			buffer.putInt(steps[i]);
+			buffer.putInt(updates[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of pairs where both bodies are in the world.
+	 */
+	private int count(World world) {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (world.isInWorld(pairsA[i]) && world.isInWorld(pairsB[i])) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the touching pairs written by {@link #snapshot(ByteBuffer, World)},
+	 * the tracker should be cleared first.
+	 *
+	 * @param buffer the buffer to read from.
+	 * @param world the world to look up the bodies in.
+	 * @throws IllegalArgumentException if a body isn't in the world.
+	 */
+	void restore(ByteBuffer buffer, World world) {
+		int currentStep = buffer.getInt();
+		int currentUpdate = buffer.getInt();
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			Body a = world.getBody(buffer.getInt());
+			Body b = world.getBody(buffer.getInt());
+			if (a == null || b == null) {
+				throw new IllegalArgumentException("Snapshot of another world supplied.");
+			}
+			// Touched as if it was the step and update it was last seen in
+			step = buffer.getInt();
+			update = buffer.getInt();
+			touch(a, b);
+		}
+		step = currentStep;
+		update = currentUpdate;
+		begins.clear();
+		used = 0;
+	}
+
+	/**
+	 * Moves the buffer past the pairs written by {@link #snapshot(ByteBuffer, World)},
+	 * without restoring them.
+	 *
+	 * @param buffer the buffer to read from.
+	 * @param world the world to look up the bodies in.
+	 * @throws IllegalArgumentException if a body isn't in the world.
+	 */
+	static void check(ByteBuffer buffer, World world) {
+		buffer.getInt();
+		buffer.getInt();
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			if (world.getBody(buffer.getInt()) == null || world.getBody(buffer.getInt()) == null) {
+				throw new IllegalArgumentException("Snapshot of another world supplied.");
+			}
+			buffer.getInt();
+			buffer.getInt();
+		}
+	}
+
+	/**
+	 * Moves the buffer past the pairs written by {@link #snapshot(ByteBuffer, World)}.
+	 *
+	 * @param buffer the buffer to skip ahead in.
+	 */
+	static void skip(ByteBuffer buffer) {
+		buffer.getInt();
+		buffer.getInt();
+		int count = buffer.getInt();
+		buffer.position(buffer.position() + count * 16);
+	}
+
+	/**
+	 * Forgets all pairs and the events of the last update.
+	 */
+	void clear() {
+		begins.clear();
+		stays.clear();
+		ends.clear();
+		used = 0;
+		for (int i = 0; i < size; i++) {
+			pairsA[i] = null;
+			pairsB[i] = null;
+		}
+		size = 0;
+		rehash(slots.length);
+	}
+
+	/**
+	 * Checks if the world skips the pair, because neither
+	 * body can move.
+	 */
+	private static boolean isResting(Body a, Body b) {
+		return (a.isSleeping() || !a.isDynamic()) && (b.isSleeping() || !b.isDynamic()) &&
+				!a.isTrigger() && !b.isTrigger();
+	}
+
+	private ContactEvent event(Body a, Body b) {
+		ContactEvent e;
+		if (used < pool.size()) {
+			e = pool.get(used);
+		} else {
+			e = new ContactEvent();
+			pool.add(e);
+		}
+		used++;
+		e.a = a;
+		e.b = b;
+		return e;
+	}
+
+	private void rehash(int capacity) {
+		if (capacity != slots.length) {
+			keys = new long[capacity];
+			slots = new int[capacity];
+		}
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = NULL;
+		}
+		int mask = capacity - 1;
+		for (int p = 0; p < size; p++) {
+			long key = pairKeys[p];
+			int i = hash(key) & mask;
+			while (slots[i] != NULL) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			slots[i] = p;
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int[] grow(int[] a, int size) {
+		int[] out = new int[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+}
@@ -0,0 +1,31 @@
+package sk.physics;
+
+import sk.util.vector.Vector2f;
+
+/**
+ * Where a ray hit a body. A hit can be reused for
+ * any number of raycasts, it's overwritten each time.
+ *
+ * @see World#raycast(Vector2f, Vector2f, short, String, RaycastHit)
+ *
+ */
+public class RaycastHit {
+
+	// The body that was hit, null if nothing was hit
+	public Body body;
+	// The point where the ray entered the body
+	public Vector2f point = new Vector2f();
+	// The normal of the surface that was hit
+	public Vector2f normal = new Vector2f();
+	// How far along the ray the hit is, from 0 at the
+	// start to 1 at the end
+	public float fraction = 1.0f;
+
+	/**
+	 * Clears the hit, so it looks like nothing was hit.
+	 */
+	public void reset() {
+		body = null;
+		fraction = 1.0f;
+	}
+}
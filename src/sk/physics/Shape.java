@@ -40,8 +40,13 @@ public class Shape {
 			new Vector2f(-d, -d));
 	}
 	
-	private Vector2f[] points;
-	private Vector2f[] normals;
+	// Package private so the collision code can read them without copying
+	Vector2f[] points;
+	Vector2f[] normals;
+	
+	// How far the shape reaches out from its points, 0 for polygons.
+	// Circles are a single point and capsules are a line.
+	float radius = 0.0f;
 	
 	// A vector that points from the center of the body, to the center of the shape
 	// (The body is always at 0, 0
@@ -121,6 +126,29 @@ public class Shape {
 		processPoints();
 	}
 	
+	/**
+	 * Creates a rounded shape, the points and normals are used as they
+	 * are. This is used by the circle and capsule shapes.
+	 * 
+	 * @param center the center of the shape.
+	 * @param points the points of the shape, relative to the center.
+	 * @param normals the normals of the shape.
+	 * @param radius how far the shape reaches out from the points.
+	 * @throws IllegalArgumentException if the radius is 0 or lower.
+	 */
+	Shape(Vector2f center, Vector2f[] points, Vector2f[] normals, float radius) {
+		if (radius <= 0.0f) {
+			throw new IllegalArgumentException("Zero or negative radius supplied.");
+		}
+		this.center = center;
+		this.points = points;
+		this.normals = normals;
+		this.radius = radius;
+		
+		calculateBPRange();
+		broadPhaseLength += radius;
+	}
+	
 	/**
 	 * Processes the points in the this shape and generates the
 	 * appropriate normal and edge data. This speeds
@@ -206,6 +234,50 @@ public class Shape {
 		return new Vector2f(center.x * t.scale.x, center.y * t.scale.y).add(t.position);
 	}
 	
+	/**
+	 * Returns the x coordinate of the center of the shape,
+	 * without creating a new vector.
+	 * 
+	 * @param t the transform of the shape.
+	 * @return the x coordinate of the center.
+	 */
+	float getCenterX(Transform t) {
+		return center.x * t.scale.x + t.position.x;
+	}
+	
+	/**
+	 * Returns the y coordinate of the center of the shape,
+	 * without creating a new vector.
+	 * 
+	 * @param t the transform of the shape.
+	 * @return the y coordinate of the center.
+	 */
+	float getCenterY(Transform t) {
+		return center.y * t.scale.y + t.position.y;
+	}
+	
+	/**
+	 * Returns how far the shape reaches out from its points,
+	 * 0 for polygons.
+	 * 
+	 * @return the radius of the shape.
+	 */
+	public float getRadius() {
+		return radius;
+	}
+	
+	/**
+	 * Returns the radius of the shape with the transform applied.
+	 * Rounded shapes stay round, the radius is scaled by the largest
+	 * of the two scales.
+	 * 
+	 * @param t the transform of the shape.
+	 * @return the scaled radius.
+	 */
+	public float getRadius(Transform t) {
+		return radius * Math.max(Math.abs(t.scale.x), Math.abs(t.scale.y));
+	}
+	
 	/**
 	 * Draws this shape.
 	 * 
@@ -218,6 +290,11 @@ public class Shape {
 	 * @param color the color to draw with.
 	 */
 	public void _draw(Transform t, Vector3f color) {
+		if (radius != 0.0f) {
+			_drawRound(t, color);
+			return;
+		}
+		
 		// Bounds
 		for (int i = 0; i < points.length; i++) {
 			Vector2f a = points[i].clone().add(center);
@@ -254,6 +331,28 @@ public class Shape {
 		sk.debug.Debug.drawCircle(getCenter(t), getBP(t));
 	}
 	
+	/**
+	 * Draws a circle around every point, and the sides of a capsule.
+	 */
+	private void _drawRound(Transform t, Vector3f color) {
+		float r = getRadius(t);
+		Vector2f[] transformed = new Vector2f[points.length];
+		for (int i = 0; i < points.length; i++) {
+			Vector2f p = new Vector2f(points[i].x * t.scale.x, points[i].y * t.scale.y);
+			transformed[i] = Vector2f.rotate(p, (float) t.rotation, null).add(getCenter(t));
+			sk.debug.Debug.drawCircle(transformed[i], r, color);
+		}
+		
+		for (Vector2f n : normals) {
+			Vector2f side = n.clone().rotate(t.rotation).scale(r);
+			for (int k = -1; k <= 1; k += 2) {
+				Vector2f a = transformed[0].clone().add(side.clone().scale(k));
+				Vector2f b = transformed[1].clone().add(side.clone().scale(k));
+				sk.debug.Debug.drawLine(a, b, color);
+			}
+		}
+	}
+	
 	/**
 	 * This value is used for broad phase checks.
 	 * The check is a simple circular check,
@@ -268,6 +367,50 @@ public class Shape {
 		return broadPhaseLength * Math.abs(Math.max(t.scale.x, t.scale.y));
 	}
 	
+	/**
+	 * Calculates the axis aligned bounding box of this shape
+	 * when the transform is applied to it. The result is written
+	 * to the destination array as <code>{minX, minY, maxX, maxY}</code>,
+	 * starting at the offset.
+	 * 
+	 * @param t the transform of the shape.
+	 * @param dest the array to write the bounds to.
+	 * @param offset the index of the first value to write.
+	 * @return the destination array.
+	 */
+	public float[] getAABB(Transform t, float[] dest, int offset) {
+		float c = (float) Math.cos(t.rotation);
+		float s = (float) Math.sin(t.rotation);
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		for (Vector2f p : points) {
+			float x = p.x * t.scale.x;
+			float y = p.y * t.scale.y;
+			float rx = x * c - y * s;
+			float ry = x * s + y * c;
+			minX = Math.min(minX, rx);
+			minY = Math.min(minY, ry);
+			maxX = Math.max(maxX, rx);
+			maxY = Math.max(maxY, ry);
+		}
+		float cx = getCenterX(t);
+		float cy = getCenterY(t);
+		if (radius != 0.0f) {
+			float r = getRadius(t);
+			minX -= r;
+			minY -= r;
+			maxX += r;
+			maxY += r;
+		}
+		dest[offset    ] = minX + cx;
+		dest[offset + 1] = minY + cy;
+		dest[offset + 2] = maxX + cx;
+		dest[offset + 3] = maxY + cy;
+		return dest;
+	}
+	
 	/**
 	 * Transforms a copy of the point p according to the transform.
 	 * 
@@ -277,14 +420,29 @@ public class Shape {
 	 * @return the dot of the axis and the transformed point.
 	 */
 	public float castAlong(Vector2f axis, Transform t, Vector2f p) {
-		Vector2f transformed = p.clone();
+		float c = (float) Math.cos(t.rotation);
+		float s = (float) Math.sin(t.rotation);
+		return castAlong(axis.x, axis.y, t, c, s, p);
+	}
+	
+	/**
+	 * Transforms the point p according to the transform and casts it
+	 * along the axis, without creating any new objects.
+	 * 
+	 * @param ax the x component of the axis.
+	 * @param ay the y component of the axis.
+	 * @param t the transform.
+	 * @param c the cosine of the rotation of the transform.
+	 * @param s the sine of the rotation of the transform.
+	 * @param p the point.
+	 * @return the dot of the axis and the transformed point.
+	 */
+	static float castAlong(float ax, float ay, Transform t, float c, float s, Vector2f p) {
 		// Scale
-		transformed.x *= t.scale.x;
-		transformed.y *= t.scale.y;
-		// Rotate
-		transformed.rotate((float) t.rotation);
-		// Cast
-		return Vector2f.dot(transformed, axis);
+		float x = p.x * t.scale.x;
+		float y = p.y * t.scale.y;
+		// Rotate and cast
+		return (x * c - y * s) * ax + (x * s + y * c) * ay;
 	}
 	
 	/**
@@ -296,11 +454,29 @@ public class Shape {
 	 * of all the points.
 	 */
 	public float castAlongMax(Vector2f axis, Transform t) {
+		float c = (float) Math.cos(t.rotation);
+		float s = (float) Math.sin(t.rotation);
+		return castAlongMax(axis.x, axis.y, t, c, s);
+	}
+	
+	/**
+	 * Casts the shape along the specified axis, returning the maximum point.
+	 * The sine and cosine of the rotation are passed in, so they only
+	 * have to be calculated once per collision check.
+	 * 
+	 * @param ax the x component of the axis.
+	 * @param ay the y component of the axis.
+	 * @param t the transform to cast along.
+	 * @param c the cosine of the rotation of the transform.
+	 * @param s the sine of the rotation of the transform.
+	 * @return the longest distance along the axis of all the points.
+	 */
+	float castAlongMax(float ax, float ay, Transform t, float c, float s) {
 		float max = 0;
 		for (Vector2f p : points) {
-			max = Math.max(max, castAlong(axis, t, p));
+			max = Math.max(max, castAlong(ax, ay, t, c, s, p));
 		}
-		return max;
+		return radius == 0.0f ? max : max + getRadius(t);
 	}
 	
 	/**
@@ -312,11 +488,29 @@ public class Shape {
 	 * of all points.
 	 */
 	public float castAlongMin(Vector2f axis, Transform t) {
+		float c = (float) Math.cos(t.rotation);
+		float s = (float) Math.sin(t.rotation);
+		return castAlongMin(axis.x, axis.y, t, c, s);
+	}
+	
+	/**
+	 * Casts the shape along the specified axis, returning the minimum point.
+	 * The sine and cosine of the rotation are passed in, so they only
+	 * have to be calculated once per collision check.
+	 * 
+	 * @param ax the x component of the axis.
+	 * @param ay the y component of the axis.
+	 * @param t the transform to cast along.
+	 * @param c the cosine of the rotation of the transform.
+	 * @param s the sine of the rotation of the transform.
+	 * @return the longest distance along the axis of all points.
+	 */
+	float castAlongMin(float ax, float ay, Transform t, float c, float s) {
 		float min = 0;
 		for (Vector2f p : points) {
-			min = Math.min(min, castAlong(axis, t, p));
+			min = Math.min(min, castAlong(ax, ay, t, c, s, p));
 		}
-		return min;
+		return radius == 0.0f ? min : min - getRadius(t);
 	}
 
 	/**
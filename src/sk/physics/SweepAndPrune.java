@@ -0,0 +1,489 @@
+package sk.physics;
+
+import java.util.HashMap;
+
+/**
+ * A sweep and prune broad phase. The minimum and maximum
+ * of every body's bounds are kept in sorted lists, one list
+ * for each axis, that persist between steps.
+ *
+ * Since most bodies only move a little each step, the lists
+ * are almost sorted already and an insertion sort puts
+ * them back in order in close to linear time. Every time
+ * two endpoints swap places, two bodies either start or
+ * stop overlapping. The overlapping pairs are kept in a
+ * set, so finding the pairs is just a walk through that set.
+ *
+ * Queries and raycasts binary search the sorted list for
+ * where to start, so they only look at the bodies near the
+ * box. A few very wide bodies make them look further back.
+ *
+ * All the lists are primitive arrays, so no objects are
+ * created during a step.
+ *
+ */
+public class SweepAndPrune implements Broadphase {
+
+	/**
+	 * Gets notified when two bodies start and stop overlapping.
+	 */
+	public interface OverlapListener {
+
+		/**
+		 * Called when the bounds of two bodies start overlapping.
+		 *
+		 * @param a the first body.
+		 * @param b the second body.
+		 */
+		public void begin(Body a, Body b);
+
+		/**
+		 * Called when the bounds of two bodies stop overlapping,
+		 * or when one of them is removed.
+		 *
+		 * @param a the first body.
+		 * @param b the second body.
+		 */
+		public void end(Body a, Body b);
+	}
+
+	private static final int NULL = -1;
+
+	// The proxies, indexed by id
+	private Body[] bodies = new Body[16];
+	private int[] order = new int[16];
+	private int[] freeIds = new int[16];
+	private int numFree = 0;
+	private int numIds = 0;
+	private int nextOrder = 0;
+	private HashMap<Body, Integer> ids = new HashMap<>();
+
+	// The endpoints along each axis. Each endpoint is the
+	// id shifted once to the left, the lowest bit is set
+	// for maximums.
+	private float[] valuesX = new float[32];
+	private float[] valuesY = new float[32];
+	private int[] endpointsX = new int[32];
+	private int[] endpointsY = new int[32];
+	private int numEndpoints = 0;
+	// The widest body along x, as of the last update
+	private float maxWidth = 0;
+
+	// The set of overlapping pairs. An open addressed table
+	// points into a dense list that is walked when reporting.
+	private long[] table = new long[64];
+	private int[] tableIndex = new int[64];
+	private long[] pairs = new long[32];
+	private int numPairs = 0;
+	// The ids each id is paired with, so the pairs of a body
+	// can be found without walking all of them
+	private int[][] partners = new int[16][];
+	private int[] numPartners = new int[16];
+
+	private OverlapListener listener;
+
+	/**
+	 * Creates a new empty sweep and prune broad phase.
+	 */
+	public SweepAndPrune() {
+		for (int i = 0; i < tableIndex.length; i++) {
+			tableIndex[i] = NULL;
+		}
+	}
+
+	/**
+	 * Sets the listener that is notified when two bodies
+	 * start and stop overlapping.
+	 *
+	 * @param listener the listener, or null to remove it.
+	 */
+	public void setOverlapListener(OverlapListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the number of pairs of bodies that currently overlap.
+	 *
+	 * @return the number of overlapping pairs.
+	 */
+	public int getNumPairs() {
+		return numPairs;
+	}
+
+	@Override
+	public void add(Body body) {
+		if (ids.containsKey(body)) return;
+
+		int id;
+		if (numFree != 0) {
+			id = freeIds[--numFree];
+		} else {
+			id = numIds++;
+			if (id == bodies.length) {
+				Body[] b = new Body[id * 2];
+				System.arraycopy(bodies, 0, b, 0, id);
+				bodies = b;
+				order = grow(order, id * 2);
+				int[][] p = new int[id * 2][];
+				System.arraycopy(partners, 0, p, 0, id);
+				partners = p;
+				numPartners = grow(numPartners, id * 2);
+			}
+		}
+		bodies[id] = body;
+		order[id] = nextOrder++;
+		ids.put(body, id);
+
+		// The endpoints are placed at the end of the lists, as if the
+		// body came from far away. The next sort moves them in place
+		// and generates the overlaps on the way.
+		if (numEndpoints + 2 > valuesX.length) {
+			int size = valuesX.length * 2;
+			valuesX = grow(valuesX, size);
+			valuesY = grow(valuesY, size);
+			endpointsX = grow(endpointsX, size);
+			endpointsY = grow(endpointsY, size);
+		}
+		endpointsX[numEndpoints] = id << 1;
+		endpointsY[numEndpoints] = id << 1;
+		valuesX[numEndpoints] = Float.MAX_VALUE;
+		valuesY[numEndpoints] = Float.MAX_VALUE;
+		numEndpoints++;
+		endpointsX[numEndpoints] = (id << 1) | 1;
+		endpointsY[numEndpoints] = (id << 1) | 1;
+		valuesX[numEndpoints] = Float.MAX_VALUE;
+		valuesY[numEndpoints] = Float.MAX_VALUE;
+		numEndpoints++;
+	}
+
+	@Override
+	public void remove(Body body) {
+		Integer boxed = ids.remove(body);
+		if (boxed == null) return;
+		int id = boxed;
+
+		// Drop all pairs the body is part of
+		while (numPartners[id] != 0) {
+			int other = partners[id][numPartners[id] - 1];
+			removePair(Math.min(id, other), Math.max(id, other));
+		}
+
+		removeEndpoints(endpointsX, valuesX, id);
+		removeEndpoints(endpointsY, valuesY, id);
+		numEndpoints -= 2;
+
+		bodies[id] = null;
+		if (numFree == freeIds.length) {
+			freeIds = grow(freeIds, numFree * 2);
+		}
+		freeIds[numFree++] = id;
+	}
+
+	@Override
+	public void update() {
+		for (int i = 0; i < numIds; i++) {
+			if (bodies[i] != null) {
+				bodies[i].updateCache();
+			}
+		}
+
+		refresh(endpointsX, valuesX, true);
+		refresh(endpointsY, valuesY, false);
+		sort(endpointsX, valuesX);
+		sort(endpointsY, valuesY);
+	}
+
+	@Override
+	public void findPairs(PairCallback callback) {
+		for (int i = 0; i < numPairs; i++) {
+			long pair = pairs[i];
+			int p = (int) (pair >>> 32);
+			int q = (int) pair;
+			if (!Body.layersCollide(bodies[p], bodies[q])) {
+				callback.layerRejected(bodies[p], bodies[q]);
+				continue;
+			}
+			if (order[p] > order[q]) {
+				callback.pair(bodies[p], bodies[q]);
+			} else {
+				callback.pair(bodies[q], bodies[p]);
+			}
+		}
+	}
+
+	@Override
+	public void query(float minX, float minY, float maxX, float maxY, QueryCallback callback) {
+		// The minimums are sorted, so stop at the first one past the box
+		for (int i = start(minX); i < numEndpoints && valuesX[i] <= maxX; i++) {
+			int e = endpointsX[i];
+			if ((e & 1) != 0) continue;
+			Body b = bodies[e >> 1];
+			if (b.maxX < minX || maxY < b.minY || b.maxY < minY) continue;
+			callback.found(b);
+		}
+	}
+
+	@Override
+	public void raycast(float x0, float y0, float x1, float y1, QueryCallback callback) {
+		float maxX = Math.max(x0, x1);
+		for (int i = start(Math.min(x0, x1)); i < numEndpoints && valuesX[i] <= maxX; i++) {
+			int e = endpointsX[i];
+			if ((e & 1) != 0) continue;
+			Body b = bodies[e >> 1];
+			if (!Body.crosses(x0, y0, x1, y1, b.minX, b.minY, b.maxX, b.maxY)) continue;
+			callback.found(b);
+		}
+	}
+
+	/**
+	 * Returns the index of the first endpoint along x that
+	 * can belong to a body reaching the specified x.
+	 */
+	private int start(float minX) {
+		// No body that starts further back is wide enough to reach it
+		float x = minX - maxWidth;
+		int lo = 0;
+		int hi = numEndpoints;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (valuesX[mid] < x) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Copies the current bounds of the bodies to the endpoints.
+	 */
+	private void refresh(int[] endpoints, float[] values, boolean x) {
+		if (x) {
+			maxWidth = 0;
+		}
+		for (int i = 0; i < numEndpoints; i++) {
+			int e = endpoints[i];
+			Body b = bodies[e >> 1];
+			if ((e & 1) == 0) {
+				values[i] = x ? b.minX : b.minY;
+			} else {
+				values[i] = x ? b.maxX : b.maxY;
+				if (x) {
+					maxWidth = Math.max(maxWidth, b.maxX - b.minX);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Insertion sorts the endpoints along one axis, starting
+	 * and ending overlaps as the endpoints pass each other.
+	 */
+	private void sort(int[] endpoints, float[] values) {
+		for (int i = 1; i < numEndpoints; i++) {
+			int e = endpoints[i];
+			float v = values[i];
+			int j = i - 1;
+			while (j >= 0 && v < values[j]) {
+				int other = endpoints[j];
+				int a = e >> 1;
+				int b = other >> 1;
+				if (a != b) {
+					boolean isMax = (e & 1) != 0;
+					boolean otherIsMax = (other & 1) != 0;
+					if (!isMax && otherIsMax) {
+						// A minimum passed a maximum, they might overlap now
+						if (overlaps(bodies[a], bodies[b])) {
+							addPair(a, b);
+						}
+					} else if (isMax && !otherIsMax) {
+						// A maximum passed a minimum, they don't overlap anymore
+						removePair(a, b);
+					}
+				}
+				endpoints[j + 1] = other;
+				values[j + 1] = values[j];
+				j--;
+			}
+			endpoints[j + 1] = e;
+			values[j + 1] = v;
+		}
+	}
+
+	private static boolean overlaps(Body a, Body b) {
+		return a.minX < b.maxX && b.minX < a.maxX &&
+				a.minY < b.maxY && b.minY < a.maxY;
+	}
+
+	/**
+	 * Removes both endpoints of the id, keeping the rest in order.
+	 */
+	private void removeEndpoints(int[] endpoints, float[] values, int id) {
+		int j = 0;
+		for (int i = 0; i < numEndpoints; i++) {
+			if ((endpoints[i] >> 1) == id) continue;
+			endpoints[j] = endpoints[i];
+			values[j] = values[i];
+			j++;
+		}
+	}
+
+	private static long key(int a, int b) {
+		return a < b ?
+				((long) a << 32) | (b & 0xFFFFFFFFL) :
+				((long) b << 32) | (a & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Adds the pair to the set, unless it is already there.
+	 */
+	private void addPair(int a, int b) {
+		long key = key(a, b);
+		int mask = table.length - 1;
+		int i = hash(key) & mask;
+		while (tableIndex[i] != NULL) {
+			if (table[i] == key) return;
+			i = (i + 1) & mask;
+		}
+		if (numPairs == pairs.length) {
+			pairs = grow(pairs, numPairs * 2);
+		}
+		table[i] = key;
+		tableIndex[i] = numPairs;
+		pairs[numPairs++] = key;
+		link(a, b);
+		link(b, a);
+
+		if (listener != null) {
+			listener.begin(bodies[a], bodies[b]);
+		}
+
+		// Keep the load factor below a half
+		if (numPairs * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the pair from the set if it is there.
+	 */
+	private void removePair(int a, int b) {
+		if (removePair(key(a, b)) && listener != null) {
+			listener.end(bodies[a], bodies[b]);
+		}
+	}
+
+	private boolean removePair(long key) {
+		int mask = table.length - 1;
+		int i = hash(key) & mask;
+		while (tableIndex[i] != NULL) {
+			if (table[i] == key) break;
+			i = (i + 1) & mask;
+		}
+		if (tableIndex[i] == NULL) return false;
+
+		unlink((int) (key >>> 32), (int) key);
+		unlink((int) key, (int) (key >>> 32));
+
+		// Fill the hole in the dense list with the last pair
+		int index = tableIndex[i];
+		long last = pairs[--numPairs];
+		if (index != numPairs) {
+			pairs[index] = last;
+			tableIndex[find(last)] = index;
+		}
+		tableIndex[i] = NULL;
+
+		// Shift back the entries that probed past the removed slot
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (tableIndex[j] == NULL) break;
+			int home = hash(table[j]) & mask;
+			// Move the entry if its home is not between the hole and it
+			if (i <= j ? (home <= i || j < home) : (home <= i && j < home)) {
+				table[i] = table[j];
+				tableIndex[i] = tableIndex[j];
+				tableIndex[j] = NULL;
+				i = j;
+			}
+		}
+		return true;
+	}
+
+	private void link(int id, int other) {
+		int[] list = partners[id];
+		int n = numPartners[id];
+		if (list == null) {
+			list = partners[id] = new int[4];
+		} else if (n == list.length) {
+			list = partners[id] = grow(list, n * 2);
+		}
+		list[n] = other;
+		numPartners[id] = n + 1;
+	}
+
+	private void unlink(int id, int other) {
+		int[] list = partners[id];
+		int n = --numPartners[id];
+		for (int i = 0; i < n; i++) {
+			if (list[i] == other) {
+				list[i] = list[n];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of a key that is known to be in the table.
+	 */
+	private int find(long key) {
+		int mask = table.length - 1;
+		int i = hash(key) & mask;
+		while (table[i] != key || tableIndex[i] == NULL) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash(int capacity) {
+		table = new long[capacity];
+		tableIndex = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			tableIndex[i] = NULL;
+		}
+		int mask = capacity - 1;
+		for (int p = 0; p < numPairs; p++) {
+			int i = hash(pairs[p]) & mask;
+			while (tableIndex[i] != NULL) {
+				i = (i + 1) & mask;
+			}
+			table[i] = pairs[p];
+			tableIndex[i] = p;
+		}
+	}
+
+	private static int[] grow(int[] a, int size) {
+		int[] out = new int[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+
+	private static long[] grow(long[] a, int size) {
+		long[] out = new long[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+
+	private static float[] grow(float[] a, int size) {
+		float[] out = new float[size];
+		System.arraycopy(a, 0, out, 0, a.length);
+		return out;
+	}
+}
@@ -0,0 +1,86 @@
+package sk.physics;
+
+import java.util.HashMap;
+
+/**
+ * Hands out a small number for every tag, so bodies can be
+ * compared by tag without comparing strings. The first 64 tags
+ * also get a bit of their own, so a set of tags can be checked
+ * against with a single mask.
+ * <p>
+ * The numbers are shared by all worlds, and stay the same for
+ * as long as the program runs.
+ * </p>
+ *
+ * @see Body#setTag(String)
+ *
+ */
+public class Tags {
+
+	// Looked up for every tag that is set, which is rare
+	private static final HashMap<String, Integer> ids = new HashMap<>();
+
+	// Returned for tags that have never been set on a body
+	public static final int NONE = -1;
+
+	private Tags() {}
+
+	/**
+	 * Returns the number of the tag, the tag is given
+	 * a new number if it doesn't have one.
+	 *
+	 * @param tag the tag.
+	 * @return the number of the tag.
+	 */
+	public static synchronized int getId(String tag) {
+		Integer id = ids.get(tag);
+		if (id == null) {
+			id = ids.size();
+			ids.put(tag, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the number of the tag, without giving it
+	 * one if it doesn't have one.
+	 *
+	 * @param tag the tag.
+	 * @return the number of the tag, or {@link #NONE} if
+	 * no body has had the tag.
+	 */
+	public static synchronized int findId(String tag) {
+		Integer id = ids.get(tag);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * Returns the bit of a tag number, 0 for tags past the first 64.
+	 *
+	 * @param id the number of the tag.
+	 * @return the bit of the tag.
+	 */
+	public static long getBit(int id) {
+		return 0 <= id && id < 64 ? 1L << id : 0L;
+	}
+
+	/**
+	 * Returns a mask with the bits of all the tags set.
+	 *
+	 * @param tags the tags.
+	 * @return the mask.
+	 * @throws IllegalArgumentException if one of the tags doesn't
+	 * fit in a mask, since there are more than 64 tags.
+	 */
+	public static long getMask(String... tags) {
+		long mask = 0L;
+		for (String tag : tags) {
+			long bit = getBit(getId(tag));
+			if (bit == 0L) {
+				throw new IllegalArgumentException("Tag outside of the first 64 supplied: " + tag);
+			}
+			mask |= bit;
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,291 @@
+package sk.physics;
+
+import sk.util.vector.Vector2f;
+
+/**
+ * A static body made from a grid of tiles. Each tile is stored
+ * as a single byte, and neighbouring tiles of the same kind are
+ * merged into as few rectangles as possible, which become the
+ * shapes of the body. A whole level is a single body in the
+ * world.
+ * <p>
+ * Bodies that touch the map are only checked against the
+ * rectangles covering the tiles their bounds overlap, not
+ * every shape of the map.
+ * </p>
+ * <p>
+ * One way tiles only stop bodies coming from the one way
+ * direction of the map, up by default, see
+ * {@link #setOneWayDirection(Vector2f)}. Solid tiles stop
+ * bodies from all directions. One way tiles are only merged
+ * along rows, so every tile keeps its own top.
+ * </p>
+ * <p>
+ * Tile (0, 0) is the lower left tile, with its lower left corner
+ * at the position of the transform. The map should not be rotated
+ * or scaled. Since the map is one large body, it goes best with
+ * a broad phase that doesn't split bodies into cells, like the
+ * {@link AABBTree} or {@link BakedStatics}.
+ * </p>
+ *
+ */
+public class TileMapBody extends Body {
+
+	public static final byte EMPTY = 0;
+	public static final byte SOLID = 1;
+	public static final byte ONE_WAY = 2;
+
+	private final int width;
+	private final int height;
+	private final float tileSize;
+	private final byte[] tiles;
+
+	// The shape covering each tile, -1 for empty tiles
+	private final int[] shapeAt;
+	// The kind of tile of each shape
+	private byte[] kinds = new byte[0];
+	// If the shapes have to be merged again
+	private boolean rebuild = true;
+
+	/**
+	 * Creates a new empty tile map.
+	 *
+	 * @param width the number of tiles along the x axis.
+	 * @param height the number of tiles along the y axis.
+	 * @param tileSize the width and height of each tile.
+	 * @throws IllegalArgumentException if any of the sizes is 0 or lower.
+	 */
+	public TileMapBody(int width, int height, float tileSize) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Zero or negative map size supplied.");
+		}
+		if (tileSize <= 0.0f) {
+			throw new IllegalArgumentException("Zero or negative tile size supplied.");
+		}
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		tiles = new byte[width * height];
+		shapeAt = new int[width * height];
+		super.setDynamic(false);
+		setOneWayLeniency(0.75f);
+	}
+
+	/**
+	 * Returns the number of tiles along the x axis.
+	 *
+	 * @return the width of the map.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of tiles along the y axis.
+	 *
+	 * @return the height of the map.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the width and height of each tile.
+	 *
+	 * @return the tile size.
+	 */
+	public float getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Returns the tile at the specified coordinates.
+	 *
+	 * @param x the x coordinate of the tile.
+	 * @param y the y coordinate of the tile.
+	 * @return the tile, {@link #EMPTY} outside of the map.
+	 */
+	public byte getTile(int x, int y) {
+		if (x < 0 || width <= x || y < 0 || height <= y) return EMPTY;
+		return tiles[y * width + x];
+	}
+
+	/**
+	 * Sets the tile at the specified coordinates. The shapes
+	 * are merged again before the next step. Bodies sleeping
+	 * on the map are not woken up by the change.
+	 *
+	 * @param x the x coordinate of the tile.
+	 * @param y the y coordinate of the tile.
+	 * @param tile the new tile, {@link #EMPTY}, {@link #SOLID} or {@link #ONE_WAY}.
+	 * @return this body instance.
+	 * @throws IllegalArgumentException if the tile is outside of the map or
+	 * isn't a known kind of tile.
+	 */
+	public TileMapBody setTile(int x, int y, byte tile) {
+		if (x < 0 || width <= x || y < 0 || height <= y) {
+			throw new IllegalArgumentException("Tile outside of the map supplied.");
+		}
+		if (tile != EMPTY && tile != SOLID && tile != ONE_WAY) {
+			throw new IllegalArgumentException("Unknown tile supplied.");
+		}
+		if (tiles[y * width + x] != tile) {
+			tiles[y * width + x] = tile;
+			rebuild = true;
+		}
+		return this;
+	}
+
+	/**
+	 * Tile maps are always static.
+	 *
+	 * @throws IllegalArgumentException if the map is made dynamic.
+	 */
+	@Override
+	public Body setDynamic(boolean dynamic) {
+		if (dynamic) {
+			throw new IllegalArgumentException("Tile maps can't be dynamic.");
+		}
+		return super.setDynamic(false);
+	}
+
+	@Override
+	boolean isCacheStale() {
+		return rebuild || super.isCacheStale();
+	}
+
+	@Override
+	void updateCache() {
+		if (rebuild) {
+			merge();
+		}
+		super.updateCache();
+	}
+
+	@Override
+	boolean oneWayCheck(int shape, float depth, float vx, float vy, float nx, float ny) {
+		if (kinds[shape] != ONE_WAY) return true;
+		return oneWayCheck(depth, vx, vy, nx, ny);
+	}
+
+	/**
+	 * Finds the shapes covering the tiles a box overlaps. The indices
+	 * are written in increasing order, each only once. If there are
+	 * more than fit in the array, the rest are skipped, but they are
+	 * still counted.
+	 *
+	 * @param minX the smallest x coordinate of the box.
+	 * @param minY the smallest y coordinate of the box.
+	 * @param maxX the largest x coordinate of the box.
+	 * @param maxY the largest y coordinate of the box.
+	 * @param out the array to write the indices to.
+	 * @return the number of shapes found, which may be more than
+	 * the length of the array.
+	 */
+	int findShapes(float minX, float minY, float maxX, float maxY, int[] out) {
+		Vector2f origin = getTransform().position;
+		float inverted = 1.0f / tileSize;
+		int x0 = Math.max(0, (int) Math.floor((minX - origin.x) * inverted));
+		int y0 = Math.max(0, (int) Math.floor((minY - origin.y) * inverted));
+		int x1 = Math.min(width - 1, (int) Math.floor((maxX - origin.x) * inverted));
+		int y1 = Math.min(height - 1, (int) Math.floor((maxY - origin.y) * inverted));
+
+		int count = 0;
+		int last = -1;
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int shape = shapeAt[y * width + x];
+				// Merged tiles in a row all point to the same shape
+				if (shape == -1 || shape == last) continue;
+				last = shape;
+				if (count < out.length) {
+					out[count] = shape;
+				}
+				count++;
+			}
+		}
+		if (out.length < count) return count;
+
+		// Sort and drop the shapes that were found more than once
+		for (int i = 1; i < count; i++) {
+			int shape = out[i];
+			int j = i - 1;
+			while (0 <= j && shape < out[j]) {
+				out[j + 1] = out[j];
+				j--;
+			}
+			out[j + 1] = shape;
+		}
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || out[unique - 1] != out[i]) {
+				out[unique++] = out[i];
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 * Merges the tiles into rectangles and replaces the shapes of
+	 * the body with them. Solid tiles are grown as far as they go
+	 * along the row, and then upwards as long as the whole row
+	 * below is matched.
+	 */
+	private void merge() {
+		rebuild = false;
+		getShapes().clear();
+		invalidateCache();
+		for (int i = 0; i < shapeAt.length; i++) {
+			shapeAt[i] = -1;
+		}
+		int numShapes = 0;
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				byte kind = tiles[y * width + x];
+				if (kind == EMPTY || shapeAt[y * width + x] != -1) continue;
+
+				int w = 1;
+				while (x + w < width &&
+						tiles[y * width + x + w] == kind &&
+						shapeAt[y * width + x + w] == -1) {
+					w++;
+				}
+
+				int h = 1;
+				if (kind == SOLID) {
+					grow:
+					while (y + h < height) {
+						int row = (y + h) * width;
+						for (int i = x; i < x + w; i++) {
+							if (tiles[row + i] != kind || shapeAt[row + i] != -1) break grow;
+						}
+						h++;
+					}
+				}
+
+				for (int j = y; j < y + h; j++) {
+					for (int i = x; i < x + w; i++) {
+						shapeAt[j * width + i] = numShapes;
+					}
+				}
+				if (kinds.length == numShapes) {
+					byte[] grown = new byte[Math.max(16, numShapes * 2)];
+					System.arraycopy(kinds, 0, grown, 0, numShapes);
+					kinds = grown;
+				}
+				kinds[numShapes++] = kind;
+
+				float left = x * tileSize;
+				float bottom = y * tileSize;
+				float right = (x + w) * tileSize;
+				float top = (y + h) * tileSize;
+				getShapes().add(new Shape(
+						new Vector2f(left, top),
+						new Vector2f(right, top),
+						new Vector2f(right, bottom),
+						new Vector2f(left, bottom)));
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package sk.physics;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the static triggers of a world out of its broad phase.
+ * Static triggers can only ever touch bodies that are dynamic and
+ * not triggers themselves, so instead of being paired with every
+ * body around them they sit in a tree of their own, and only the
+ * dynamic bodies look themselves up in it.
+ *
+ * Bodies move between the set and the broad phase when they
+ * become or stop being static triggers.
+ *
+ */
+class TriggerSet {
+
+	private final AABBTree tree = new AABBTree();
+	private int size = 0;
+	// All the layers the triggers are on
+	private short layers = 0;
+
+	// Reused while the dynamic bodies look up the triggers
+	private Broadphase.PairCallback pairCallback;
+	private Body pairBody;
+	private final Broadphase.QueryCallback pairQuery = this::foundPair;
+
+	/**
+	 * Checks if a body belongs in the set.
+	 *
+	 * @param body the body to check.
+	 * @return true if the body is a static trigger.
+	 */
+	static boolean belongs(Body body) {
+		return body.isTrigger() && !body.isDynamic();
+	}
+
+	/**
+	 * Adds a body to the set if it belongs there, and to the
+	 * broad phase otherwise.
+	 *
+	 * @param body the body to add.
+	 * @param broadphase the broad phase of the world.
+	 */
+	void add(Body body, Broadphase broadphase) {
+		body.inTriggerSet = belongs(body);
+		if (body.inTriggerSet) {
+			tree.add(body);
+			size++;
+		} else {
+			broadphase.add(body);
+		}
+	}
+
+	/**
+	 * Removes a body from the set or the broad phase,
+	 * whichever it is in.
+	 *
+	 * @param body the body to remove.
+	 * @param broadphase the broad phase of the world.
+	 */
+	void remove(Body body, Broadphase broadphase) {
+		if (body.inTriggerSet) {
+			tree.remove(body);
+			size--;
+			body.inTriggerSet = false;
+		} else {
+			broadphase.remove(body);
+		}
+	}
+
+	/**
+	 * Moves the bodies that have started or stopped being static
+	 * triggers, and brings the tree up to date. The broad phase
+	 * still has to be updated after.
+	 *
+	 * @param bodies all bodies in the world.
+	 * @param broadphase the broad phase of the world.
+	 */
+	void update(ArrayList<Body> bodies, Broadphase broadphase) {
+		layers = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			if (belongs(b) != b.inTriggerSet) {
+				remove(b, broadphase);
+				add(b, broadphase);
+			}
+			if (b.inTriggerSet) {
+				layers |= b.getLayer();
+			}
+		}
+		if (size != 0) {
+			tree.update();
+		}
+	}
+
+	/**
+	 * Reports every dynamic body that isn't a trigger
+	 * together with the triggers it overlaps.
+	 *
+	 * @param bodies all bodies in the world.
+	 * @param callback the callback to report the pairs to.
+	 */
+	void findPairs(ArrayList<Body> bodies, Broadphase.PairCallback callback) {
+		if (size == 0) return;
+		pairCallback = callback;
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			if (!b.isDynamic() || b.isTrigger() || b.maxX < b.minX) continue;
+			// None of the triggers are on a layer the body collides with
+			if ((b.collisionMask & layers) == 0) continue;
+			pairBody = b;
+			tree.query(b.minX, b.minY, b.maxX, b.maxY, pairQuery);
+		}
+		pairCallback = null;
+		pairBody = null;
+	}
+
+	private void foundPair(Body trigger) {
+		if (!Body.layersCollide(pairBody, trigger)) {
+			pairCallback.layerRejected(pairBody, trigger);
+			return;
+		}
+		pairCallback.pair(pairBody, trigger);
+	}
+
+	/**
+	 * Reports the triggers that overlap the box.
+	 *
+	 * @see Broadphase#query(float, float, float, float, Broadphase.QueryCallback)
+	 */
+	void query(float minX, float minY, float maxX, float maxY, Broadphase.QueryCallback callback) {
+		if (size == 0) return;
+		tree.query(minX, minY, maxX, maxY, callback);
+	}
+
+	/**
+	 * Reports the triggers the line passes through.
+	 *
+	 * @see Broadphase#raycast(float, float, float, float, Broadphase.QueryCallback)
+	 */
+	void raycast(float x0, float y0, float x1, float y1, Broadphase.QueryCallback callback) {
+		if (size == 0) return;
+		tree.raycast(x0, y0, x1, y1, callback);
+	}
+}
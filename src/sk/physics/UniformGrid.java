@@ -0,0 +1,413 @@
+package sk.physics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A uniform grid (spatial hash) used by the world to find
+ * bodies that are close enough to possibly collide.
+ *
+ * Every body is registered in each cell its bounds
+ * overlap. Bodies are only moved between cells when
+ * the range of cells they cover changes, so bodies
+ * that stay still cost next to nothing.
+ *
+ * The cell size should be roughly the size of the
+ * typical body in the world. Cells that are too small
+ * will make large bodies span a lot of cells, and cells
+ * that are too large will put too many bodies in each
+ * cell.
+ *
+ */
+public class UniformGrid implements Broadphase {
+
+	/**
+	 * A body registered in the grid and the range of cells it covers.
+	 */
+	private static class Proxy {
+		Body body;
+		int order;
+		boolean inserted = false;
+		int x0, y0, x1, y1;
+		// The last raycast that found this proxy
+		int query = 0;
+	}
+
+	/**
+	 * A single cell of the grid.
+	 */
+	private static class Cell {
+		final int x, y;
+		Proxy[] proxies = new Proxy[4];
+		int size = 0;
+
+		Cell(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		void add(Proxy p) {
+			if (size == proxies.length) {
+				Proxy[] grown = new Proxy[size * 2];
+				System.arraycopy(proxies, 0, grown, 0, size);
+				proxies = grown;
+			}
+			proxies[size++] = p;
+		}
+
+		void remove(Proxy p) {
+			for (int i = 0; i < size; i++) {
+				if (proxies[i] == p) {
+					proxies[i] = proxies[--size];
+					proxies[size] = null;
+					return;
+				}
+			}
+		}
+	}
+
+	private static final float DEFAULT_CELL_SIZE = 4.0f;
+	private static final int PURGE_LIMIT = 1024;
+
+	private float cellSize;
+	private float invertedCellSize;
+
+	private ArrayList<Proxy> proxies = new ArrayList<>();
+	private HashMap<Body, Proxy> lookup = new HashMap<>();
+	private int nextOrder = 0;
+
+	// Open addressed hash from packed cell coordinates to cells,
+	// this keeps lookups free from boxing.
+	private long[] keys = new long[64];
+	private Cell[] slots = new Cell[64];
+	private ArrayList<Cell> cells = new ArrayList<>();
+	
+	// Counts the raycasts, so each body is only reported once
+	private int query = 0;
+
+	/**
+	 * Creates a new grid with the default cell size.
+	 */
+	public UniformGrid() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Creates a new grid with the specified cell size.
+	 *
+	 * @param cellSize the width and height of each cell.
+	 * @throws IllegalArgumentException if the cell size is 0 or lower.
+	 */
+	public UniformGrid(float cellSize) {
+		setCellSize(cellSize);
+	}
+
+	/**
+	 * Returns the width and height of each cell.
+	 *
+	 * @return the cell size.
+	 */
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Sets the width and height of each cell. This
+	 * will rebuild the grid.
+	 *
+	 * @param cellSize the new cell size.
+	 * @throws IllegalArgumentException if the cell size is 0 or lower.
+	 */
+	public void setCellSize(float cellSize) {
+		if (cellSize <= 0.0f) {
+			throw new IllegalArgumentException("Zero or negative cell size supplied.");
+		}
+		this.cellSize = cellSize;
+		this.invertedCellSize = 1.0f / cellSize;
+
+		// Everything needs to be rehashed
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = null;
+		}
+		cells.clear();
+		for (Proxy p : proxies) {
+			p.inserted = false;
+		}
+	}
+
+	@Override
+	public void add(Body body) {
+		if (lookup.containsKey(body)) return;
+		Proxy p = new Proxy();
+		p.body = body;
+		p.order = nextOrder++;
+		proxies.add(p);
+		lookup.put(body, p);
+	}
+
+	@Override
+	public void remove(Body body) {
+		Proxy p = lookup.remove(body);
+		if (p == null) return;
+		if (p.inserted) {
+			removeFromCells(p);
+		}
+		proxies.remove(p);
+	}
+
+	@Override
+	public void update() {
+		for (int i = 0; i < proxies.size(); i++) {
+			Proxy p = proxies.get(i);
+			Body b = p.body;
+			b.updateCache();
+
+			// Bodies without shapes don't go anywhere
+			if (b.maxX < b.minX) {
+				if (p.inserted) {
+					removeFromCells(p);
+					p.inserted = false;
+				}
+				continue;
+			}
+
+			int x0 = cell(b.minX);
+			int y0 = cell(b.minY);
+			int x1 = cell(b.maxX);
+			int y1 = cell(b.maxY);
+
+			if (p.inserted &&
+					x0 == p.x0 && y0 == p.y0 &&
+					x1 == p.x1 && y1 == p.y1) {
+				continue;
+			}
+
+			if (p.inserted) {
+				removeFromCells(p);
+			}
+			p.x0 = x0;
+			p.y0 = y0;
+			p.x1 = x1;
+			p.y1 = y1;
+			for (int x = x0; x <= x1; x++) {
+				for (int y = y0; y <= y1; y++) {
+					getCell(x, y, true).add(p);
+				}
+			}
+			p.inserted = true;
+		}
+	}
+
+	@Override
+	public void findPairs(PairCallback callback) {
+		int occupied = 0;
+		for (int c = 0; c < cells.size(); c++) {
+			Cell cell = cells.get(c);
+			if (cell.size != 0) occupied++;
+			Proxy[] ps = cell.proxies;
+			for (int i = 1; i < cell.size; i++) {
+				Proxy p = ps[i];
+				for (int j = 0; j < i; j++) {
+					Proxy q = ps[j];
+
+					// Only report the pair in the first cell they share
+					if (cell.x != Math.max(p.x0, q.x0) ||
+						cell.y != Math.max(p.y0, q.y0)) continue;
+
+					Body a = p.body;
+					Body b = q.body;
+					if (!Body.layersCollide(a, b)) {
+						callback.layerRejected(a, b);
+						continue;
+					}
+					if (a.maxX < b.minX || b.maxX < a.minX ||
+						a.maxY < b.minY || b.maxY < a.minY) continue;
+
+					if (p.order > q.order) {
+						callback.pair(a, b);
+					} else {
+						callback.pair(b, a);
+					}
+				}
+			}
+		}
+
+		// Bodies that travel far leave a trail of empty cells
+		if (PURGE_LIMIT < cells.size() && occupied * 4 < cells.size()) {
+			purge();
+		}
+	}
+
+	@Override
+	public void query(float minX, float minY, float maxX, float maxY, QueryCallback callback) {
+		int x0 = cell(minX);
+		int y0 = cell(minY);
+		int x1 = cell(maxX);
+		int y1 = cell(maxY);
+		
+		// Huge boxes are cheaper to check against every cell there is
+		if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > cells.size()) {
+			for (int c = 0; c < cells.size(); c++) {
+				Cell cell = cells.get(c);
+				if (cell.x < x0 || x1 < cell.x || cell.y < y0 || y1 < cell.y) continue;
+				query(cell, x0, y0, minX, minY, maxX, maxY, callback);
+			}
+			return;
+		}
+		
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				Cell cell = getCell(x, y, false);
+				if (cell != null) {
+					query(cell, x0, y0, minX, minY, maxX, maxY, callback);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reports the bodies in a cell that overlap the box.
+	 */
+	private void query(Cell cell, int x0, int y0, float minX, float minY,
+			float maxX, float maxY, QueryCallback callback) {
+		for (int i = 0; i < cell.size; i++) {
+			Proxy p = cell.proxies[i];
+			
+			// Only report the body in the first cell it shares with the box
+			if (cell.x != Math.max(p.x0, x0) ||
+				cell.y != Math.max(p.y0, y0)) continue;
+			
+			Body b = p.body;
+			if (maxX < b.minX || b.maxX < minX ||
+				maxY < b.minY || b.maxY < minY) continue;
+			callback.found(b);
+		}
+	}
+	
+	@Override
+	public void raycast(float x0, float y0, float x1, float y1, QueryCallback callback) {
+		int stamp = ++query;
+		
+		// Walk the cells the segment passes through, in order
+		int x = cell(x0);
+		int y = cell(y0);
+		int steps = Math.abs(cell(x1) - x) + Math.abs(cell(y1) - y);
+		float dx = x1 - x0;
+		float dy = y1 - y0;
+		int stepX = dx > 0.0f ? 1 : -1;
+		int stepY = dy > 0.0f ? 1 : -1;
+		float deltaX = dx != 0.0f ? cellSize / Math.abs(dx) : Float.MAX_VALUE;
+		float deltaY = dy != 0.0f ? cellSize / Math.abs(dy) : Float.MAX_VALUE;
+		float nextX = dx != 0.0f ? ((x + (dx > 0.0f ? 1 : 0)) * cellSize - x0) / dx : Float.MAX_VALUE;
+		float nextY = dy != 0.0f ? ((y + (dy > 0.0f ? 1 : 0)) * cellSize - y0) / dy : Float.MAX_VALUE;
+		
+		for (int i = 0; ; i++) {
+			Cell cell = getCell(x, y, false);
+			if (cell != null) {
+				for (int j = 0; j < cell.size; j++) {
+					Proxy p = cell.proxies[j];
+					if (p.query == stamp) continue;
+					p.query = stamp;
+					
+					Body b = p.body;
+					if (Body.crosses(x0, y0, x1, y1, b.minX, b.minY, b.maxX, b.maxY)) {
+						callback.found(b);
+					}
+				}
+			}
+			
+			if (i == steps) break;
+			if (nextX < nextY) {
+				x += stepX;
+				nextX += deltaX;
+			} else {
+				y += stepY;
+				nextY += deltaY;
+			}
+		}
+	}
+	
+	/**
+	 * Drops all empty cells.
+	 */
+	private void purge() {
+		for (int i = cells.size() - 1; i >= 0; i--) {
+			if (cells.get(i).size == 0) {
+				cells.set(i, cells.get(cells.size() - 1));
+				cells.remove(cells.size() - 1);
+			}
+		}
+		rehash(slots.length);
+	}
+
+	/**
+	 * Returns the cell coordinate of the specified world coordinate.
+	 */
+	private int cell(float v) {
+		return (int) Math.floor(v * invertedCellSize);
+	}
+
+	/**
+	 * Removes the proxy from all the cells it currently covers.
+	 */
+	private void removeFromCells(Proxy p) {
+		for (int x = p.x0; x <= p.x1; x++) {
+			for (int y = p.y0; y <= p.y1; y++) {
+				Cell cell = getCell(x, y, false);
+				if (cell != null) {
+					cell.remove(p);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the cell at the specified coordinates.
+	 *
+	 * @param create if the cell should be created if it doesn't exist.
+	 */
+	private Cell getCell(int x, int y, boolean create) {
+		long key = ((long) x << 32) | (y & 0xFFFFFFFFL);
+		int mask = slots.length - 1;
+		int i = hash(key) & mask;
+		while (slots[i] != null) {
+			if (keys[i] == key) return slots[i];
+			i = (i + 1) & mask;
+		}
+		if (!create) return null;
+
+		Cell cell = new Cell(x, y);
+		keys[i] = key;
+		slots[i] = cell;
+		cells.add(cell);
+
+		// Keep the load factor below a half
+		if (cells.size() * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return cell;
+	}
+
+	/**
+	 * Grows the hash table.
+	 */
+	private void rehash(int capacity) {
+		keys = new long[capacity];
+		slots = new Cell[capacity];
+		int mask = capacity - 1;
+		for (Cell cell : cells) {
+			long key = ((long) cell.x << 32) | (cell.y & 0xFFFFFFFFL);
+			int i = hash(key) & mask;
+			while (slots[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			slots[i] = cell;
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -1,6 +1,12 @@
 package sk.physics;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import sk.entity.Entity;
 import sk.gfx.Transform;
@@ -22,6 +28,142 @@ public class World {
 	public Vector2f gravity = new Vector2f(0.0f, -0.5f);
 	private float timer = 0.0f;
 	
+	// The most steps taken in one update, 0 for no limit
+	private int maxSubSteps = 0;
+	// The time that was thrown away in the last update
+	private float droppedTime = 0.0f;
+	
+	// Keeps track of which bodies touch, null if there are no events
+	private ContactTracker tracker = null;
+	
+	// Finds the pairs of bodies that are close enough to collide
+	private Broadphase broadphase;
+	// The static triggers, kept out of the broad phase
+	private final TriggerSet triggers = new TriggerSet();
+	
+	// Which layers collide with each other, as one mask for each layer
+	private short[] layerMatrix = new short[16];
+	// The layers collided with by every combination of the lower
+	// eight layers, and of the upper eight, built from the matrix
+	private short[] lowerMasks = new short[256];
+	private short[] upperMasks = new short[256];
+	private final Broadphase.PairCallback pairFilter = new Broadphase.PairCallback() {
+		@Override
+		public void pair(Body a, Body b) {
+			addPair(a, b);
+		}
+		
+		@Override
+		public void layerRejected(Body a, Body b) {
+			if (stats != null) stats.layerRejections++;
+		}
+	};
+	
+	// The pairs that passed the filters this step
+	private Body[] pairsA = new Body[64];
+	private Body[] pairsB = new Body[64];
+	private int numPairs = 0;
+	// The bytes each body takes up in a snapshot
+	private static final int SNAPSHOT_BODY_SIZE = 68;
+	
+	// What the world did during the update, null if it isn't kept track of
+	private WorldStats stats = null;
+	private WorldStats lastStats = null;
+	private WorldStats.Listener statsListener = null;
+	
+	// Sorting the pairs makes the order independent of the broad phase
+	private boolean sortPairs = false;
+	private long[] pairKeys = new long[64];
+	
+	// Reused by the narrow phase, the bodies keep their own copies
+	private final Collision contact = new Collision();
+	// The shapes of a tile map worth testing, for the serial narrow phase
+	private final ContactBuffer candidates = new ContactBuffer();
+	
+	// Running the narrow phase in parallel
+	private ForkJoinPool pool = null;
+	private int parallelThreshold = 256;
+	private ArrayList<ContactBuffer> buffers = new ArrayList<>();
+	private int chunkSize;
+	
+	// Sleeping
+	private boolean sleepingEnabled = false;
+	private float sleepVelocity = 0.05f;
+	private float timeToSleep = 0.5f;
+	// The islands of touching bodies, as a union find over the body indices
+	private int[] islands = new int[64];
+	private float[] islandTimers = new float[64];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private ArrayList<Body>[] newIslands = new ArrayList[64];
+	
+	// The iterative contact solver, only used if there are iterations
+	private ContactSolver solver = new ContactSolver();
+	private int solverIterations = 0;
+	private int nextBodyId = 0;
+	
+	// The state of the running query, kept here so the
+	// callbacks don't have to be created for every query
+	private final Broadphase.QueryCallback aabbQuery = this::foundInAABB;
+	private final Broadphase.QueryCallback pointQuery = this::foundAtPoint;
+	private final Broadphase.QueryCallback shapeQuery = this::foundInShape;
+	private final Broadphase.QueryCallback rayQuery = this::foundOnRay;
+	private final Collision queryContact = new Collision();
+	private final float[] queryBounds = new float[4];
+	private short queryLayer;
+	private String queryTag;
+	private int queryTagId;
+	private Body[] queryResult;
+	private int queryCount;
+	private float queryX, queryY, queryDX, queryDY;
+	private Shape queryShape;
+	private Transform queryTransform;
+	private RaycastHit queryHit;
+	// Set when bodies may have moved since the broad phase was updated
+	private boolean queryStale = true;
+	
+	// The bodies a bullet may hit on its way
+	private final Broadphase.QueryCallback sweepQuery = this::foundOnSweep;
+	private Body sweeping;
+	private Body[] sweepCandidates = new Body[16];
+	private int numSweepCandidates;
+	
+	// The packed velocities, forces and flags of all bodies, or null
+	// if every body keeps its own
+	private BodyStorage storage = null;
+	
+	/**
+	 * Creates a new world that uses a {@link UniformGrid}
+	 * with the default cell size as broad phase.
+	 */
+	public World() {
+		this(new UniformGrid());
+	}
+	
+	/**
+	 * Creates a new world that uses the specified broad phase.
+	 * 
+	 * @param broadphase the broad phase to use.
+	 */
+	public World(Broadphase broadphase) {
+		setBroadphase(broadphase);
+		// Every layer only collides with itself
+		for (int i = 0; i < layerMatrix.length; i++) {
+			layerMatrix[i] = (short) (1 << i);
+		}
+		buildLayerMasks();
+	}
+	
+	/**
+	 * Creates a new world where the broad phase grid
+	 * has the specified cell size.
+	 * 
+	 * @param cellSize the size of the cells in the broad phase grid.
+	 * @throws IllegalArgumentException if the cell size is 0 or lower.
+	 */
+	public World(float cellSize) {
+		this(new UniformGrid(cellSize));
+	}
+	
 	/**
 	 * Adds a physics body to this world.
 	 * 
@@ -31,7 +173,262 @@ public class World {
 		// Make sure there's only one of each body
 		if (body == null) throw new IllegalArgumentException("Body passed to world is null");
 		if (bodies.contains(body)) return;
+		body.id = nextBodyId++;
 		bodies.add(body);
+		triggers.add(body, broadphase);
+		queryStale = true;
+		if (storage != null) {
+			body.pack(storage);
+		}
+	}
+	
+	/**
+	 * Returns the most steps the world takes in one update.
+	 * 
+	 * @return the maximum number of steps, 0 if there is no limit.
+	 */
+	public int getMaxSubSteps() {
+		return maxSubSteps;
+	}
+	
+	/**
+	 * Sets the most steps the world takes in one update. If a frame
+	 * takes so long that more steps are needed, the time that is left
+	 * is dropped, so the simulation slows down instead of taking ever
+	 * longer to catch up.
+	 * 
+	 * @param maxSubSteps the maximum number of steps, 0 for no limit.
+	 * @throws IllegalArgumentException if the number of steps is negative.
+	 */
+	public void setMaxSubSteps(int maxSubSteps) {
+		if (maxSubSteps < 0) {
+			throw new IllegalArgumentException("Negative number of sub steps supplied.");
+		}
+		this.maxSubSteps = maxSubSteps;
+	}
+	
+	/**
+	 * Returns the time that was dropped in the last update,
+	 * because it would have taken more than the maximum number
+	 * of steps to catch up.
+	 * 
+	 * @return the dropped time.
+	 * @see #setMaxSubSteps(int)
+	 */
+	public float getDroppedTime() {
+		return droppedTime;
+	}
+	
+	/**
+	 * Returns how far the world has come towards the next step,
+	 * from 0 right after a step to 1 just before the next. Use
+	 * it to draw the bodies between where they were and where
+	 * they are, see {@link Body#getInterpolatedPosition(float, Vector2f)}.
+	 * 
+	 * @return the interpolation alpha.
+	 */
+	public float getAlpha() {
+		return Math.min(timer / stepLength, 1.0f);
+	}
+	
+	/**
+	 * Returns whether or not the pairs of bodies are sorted before
+	 * the collisions are checked.
+	 * 
+	 * @return true if the pairs are sorted.
+	 * @see #setSortedPairs(boolean)
+	 */
+	public boolean isSortedPairs() {
+		return sortPairs;
+	}
+	
+	/**
+	 * Sets whether or not the pairs of bodies are sorted before the
+	 * collisions are checked. The collisions are solved one after
+	 * another, so the order changes the outcome a little. Without
+	 * sorting, the order depends on everything the broad phase has
+	 * been through, with sorting it only depends on the bodies. Turn
+	 * it on to replay a world from a snapshot the exact same way.
+	 * 
+	 * @param sorted if the pairs should be sorted.
+	 * @see #restore(ByteBuffer)
+	 */
+	public void setSortedPairs(boolean sorted) {
+		sortPairs = sorted;
+	}
+	
+	/**
+	 * Returns the number of bytes a snapshot of the world takes
+	 * right now. It grows with the number of bodies and contacts.
+	 * 
+	 * @return the size of a snapshot in bytes.
+	 * @see #snapshot(ByteBuffer)
+	 */
+	public int getSnapshotSize() {
+		// The contacts of bodies that have left the world are skipped
+		for (int i = 0; i < bodies.size(); i++) {
+			bodies.get(i).index = i;
+		}
+		return 16 + bodies.size() * SNAPSHOT_BODY_SIZE + solver.snapshotSize(this) +
+				(tracker != null ? tracker.snapshotSize(this) : 0);
+	}
+	
+	/**
+	 * Writes the state of the world to the buffer, starting at its
+	 * position. That's where the bodies are and how they move, which
+	 * ones are asleep, and the contacts the solver and the contact
+	 * events carry over between steps. The buffer is best allocated
+	 * once, direct and in the native byte order.
+	 * <p>
+	 * The shapes, masses and other settings of the bodies are not
+	 * part of the snapshot, and neither is the broad phase. Use
+	 * {@link #setSortedPairs(boolean)} if a restored world should
+	 * play out exactly like it did the first time.
+	 * </p>
+	 * 
+	 * @param buffer the buffer to write to.
+	 * @throws java.nio.BufferOverflowException if the snapshot doesn't
+	 * fit, see {@link #getSnapshotSize()}.
+	 */
+	public void snapshot(ByteBuffer buffer) {
+		buffer.putInt(bodies.size());
+		buffer.putFloat(timer);
+		buffer.putFloat(droppedTime);
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			Transform t = b.getTransform();
+			// The first body of the island, since the lists are built in order
+			Body island = b.island != null && !b.island.isEmpty() ? b.island.get(0) : null;
+			b.index = i;
+			buffer.putInt(b.id);
+			// The other flags are settings of the body
+			buffer.putInt(b.getFlags() & BodyStorage.SLEEPING);
+			buffer.putInt(island != null ? island.index : -1);
+			buffer.putInt(b.isCacheStale() ? 1 : 0);
+			buffer.putFloat(t.position.x);
+			buffer.putFloat(t.position.y);
+			buffer.putFloat(t.rotation);
+			buffer.putFloat(b.getVelocityX());
+			buffer.putFloat(b.getVelocityY());
+			buffer.putFloat(b.getForceX());
+			buffer.putFloat(b.getForceY());
+			buffer.putFloat(b.getPreviousX());
+			buffer.putFloat(b.getPreviousY());
+			buffer.putFloat(b.getPreviousRotation());
+			buffer.putFloat(b.sleepTimer);
+			buffer.putFloat(b.restX);
+			buffer.putFloat(b.restY);
+		}
+		solver.snapshot(buffer, this);
+		buffer.putInt(tracker != null ? 1 : 0);
+		if (tracker != null) {
+			tracker.snapshot(buffer, this);
+		}
+	}
+	
+	/**
+	 * Puts the world back in the state written by {@link #snapshot(ByteBuffer)},
+	 * reading from the position of the buffer. The world has to hold the
+	 * same bodies as when the snapshot was taken. Everything in the snapshot
+	 * comes back bit for bit, the bodies are woken up or put back to sleep
+	 * and the contact events of the last update are forgotten. The whole
+	 * snapshot is checked before anything is restored, so the world is
+	 * left as it was if it doesn't fit.
+	 * 
+	 * @param buffer the buffer to read from.
+	 * @throws IllegalArgumentException if the snapshot was taken with
+	 * other bodies in the world.
+	 */
+	public void restore(ByteBuffer buffer) {
+		check(buffer.duplicate().order(buffer.order()));
+		
+		buffer.getInt();
+		timer = buffer.getFloat();
+		droppedTime = buffer.getFloat();
+		for (int i = 0; i < bodies.size(); i++) {
+			bodies.get(i).island = null;
+		}
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			Transform t = b.getTransform();
+			buffer.getInt();
+			b.index = i;
+			b.putFlags((b.getFlags() & ~BodyStorage.SLEEPING) |
+					(buffer.getInt() & BodyStorage.SLEEPING));
+			int island = buffer.getInt();
+			boolean stale = buffer.getInt() != 0;
+			t.position.x = buffer.getFloat();
+			t.position.y = buffer.getFloat();
+			t.rotation = buffer.getFloat();
+			b.putVelocity(buffer.getFloat(), buffer.getFloat());
+			b.putForce(buffer.getFloat(), buffer.getFloat());
+			b.putPrevious(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+			b.sleepTimer = buffer.getFloat();
+			b.restX = buffer.getFloat();
+			b.restY = buffer.getFloat();
+			
+			if (island != -1) {
+				// The first body of the island comes first in the world too
+				Body first = getBody(island);
+				if (first.island == null) {
+					first.island = new ArrayList<>();
+				}
+				b.island = first.island;
+				b.island.add(b);
+			}
+			
+			// A cache that was up to date has to stay that way, or a
+			// sleeping body would wake up, and the other way around
+			if (stale) {
+				b.invalidateCache();
+			} else {
+				b.updateCache();
+			}
+		}
+		solver.restore(buffer, this);
+		boolean tracked = buffer.getInt() != 0;
+		if (tracker != null) {
+			tracker.clear();
+			if (tracked) {
+				tracker.restore(buffer, this);
+			}
+		} else if (tracked) {
+			// Events were enabled when the snapshot was taken
+			ContactTracker.skip(buffer);
+		}
+		queryStale = true;
+	}
+	
+	/**
+	 * Reads through a snapshot, making sure it was taken with the
+	 * bodies of this world.
+	 * 
+	 * @param buffer the buffer to read from.
+	 * @throws IllegalArgumentException if the snapshot was taken with
+	 * other bodies in the world.
+	 */
+	private void check(ByteBuffer buffer) {
+		if (buffer.getInt() != bodies.size()) {
+			throw new IllegalArgumentException("Snapshot of another world supplied.");
+		}
+		buffer.getFloat();
+		buffer.getFloat();
+		for (int i = 0; i < bodies.size(); i++) {
+			if (buffer.getInt() != bodies.get(i).id) {
+				throw new IllegalArgumentException("Snapshot of another world supplied.");
+			}
+			buffer.getInt();
+			int island = buffer.getInt();
+			if (island != -1 && getBody(island) == null) {
+				throw new IllegalArgumentException("Snapshot of another world supplied.");
+			}
+			// The rest of the body
+			buffer.position(buffer.position() + SNAPSHOT_BODY_SIZE - 12);
+		}
+		ContactSolver.check(buffer, this);
+		if (buffer.getInt() != 0) {
+			ContactTracker.check(buffer, this);
+		}
 	}
 	
 	/**
@@ -40,7 +437,19 @@ public class World {
 	 * @param body the body that should be removed.
 	 */
 	public void removeBody(Body body) {
-		bodies.remove(body);
+		if (!bodies.remove(body)) return;
+		body.unpack();
+		triggers.remove(body, broadphase);
+		solver.remove(body);
+		body.collisionMask = body.getLayer();
+		queryStale = true;
+		if (body.island != null) {
+			body.island.remove(body);
+			body.island = null;
+		}
+		if (tracker != null) {
+			tracker.remove(body);
+		}
 	}
 	
 	/**
@@ -50,82 +459,1370 @@ public class World {
 	 * @param delta the time passed since the previous frame.
 	 */
 	public void update(double delta) {
+		long start = 0;
+		if (stats != null) {
+			stats.reset();
+			start = System.nanoTime();
+		}
 		timer += delta;
+		droppedTime = 0.0f;
+		int steps = 0;
+		if (tracker != null) {
+			tracker.beginUpdate();
+		}
 		// Make sure we only step if we need to
 		while (stepLength < timer) {
+			// Don't fall further behind by trying to catch up
+			if (maxSubSteps != 0 && steps == maxSubSteps) {
+				float kept = timer % stepLength;
+				droppedTime = timer - kept;
+				timer = kept;
+				break;
+			}
+			steps++;
 			timer -= stepLength;
+			long time = stats != null ? System.nanoTime() : 0;
 			// Update all bodies
 			Vector2f deltaGravity = (Vector2f) gravity.clone().scale((float) stepLength);
-			for (Body a : bodies) {
-				if (a.isDynamic() && !a.isOnlyOverlap())
-					a.addVelocity(deltaGravity);
-				a.step(stepLength);
+			int integrated = 0;
+			if (storage != null) {
+				integrated = storage.integrate(deltaGravity, stepLength);
+			} else {
+				for (Body a : bodies) {
+					a.snapshot();
+					if (a.isSleeping()) {
+						// Only wake up if something moved the body
+						if (!a.isCacheStale()) continue;
+						a.wake();
+					}
+					if (a.isDynamic() && !a.isOnlyOverlap())
+						a.addVelocity(deltaGravity);
+					a.step(stepLength);
+					integrated++;
+				}
+			}
+			
+			// The bodies and their layers may have changed since the last step
+			for (int i = 0; i < bodies.size(); i++) {
+				Body b = bodies.get(i);
+				b.index = i;
+				b.collisionMask = getLayerMask(b.getLayer());
+			}
+			
+			// Stop the bullets before they pass through anything
+			for (int i = 0; i < bodies.size(); i++) {
+				Body b = bodies.get(i);
+				if (b.isBullet() && b.isDynamic() && !b.isTrigger() && !b.isSleeping()) {
+					sweep(b);
+				}
+			}
+			if (stats != null) {
+				long now = System.nanoTime();
+				stats.integrateTime += now - time;
+				time = now;
+				stats.steps++;
+				stats.bodiesIntegrated += integrated;
+			}
+			
+			if (sleepingEnabled) {
+				prepareIslands();
+			}
+			
+			if (solverIterations != 0) {
+				solver.begin();
+			}
+			if (tracker != null) {
+				tracker.beginStep();
+			}
+			
+			// Find the pairs that might collide
+			triggers.update(bodies, broadphase);
+			broadphase.update();
+			numPairs = 0;
+			broadphase.findPairs(pairFilter);
+			triggers.findPairs(bodies, pairFilter);
+			if (sortPairs) {
+				sortPairs();
+			}
+			if (stats != null) {
+				long now = System.nanoTime();
+				stats.broadphaseTime += now - time;
+				time = now;
 			}
 			
 			// Check for collisions
-			for (int i = 1; i < bodies.size(); i++) {
-				for (int j = 0; j < i; j++) {
-					Body a = bodies.get(i);
-					Body b = bodies.get(j);
-					// Check if they share a layer
-					if (!a.sharesLayer(b)) continue;
-					// Make sure not both are static
-					if (!a.isDynamic() && !b.isDynamic()) continue;
-					// Make sure not both are triggers
-					if (a.isTrigger() && b.isTrigger()) continue;
-					// Make sure they don't share parent
-					if (a.getParent() == b.getParent() && a.getParent() != null) continue;
- 					
-					
-					Collision c = null;
-					Transform ta = a.getTransform();
-					Transform tb = b.getTransform();
-					for (Shape shapeA : a.getShapes()) {
-						for (Shape shapeB : b.getShapes()) {
-							float bpRange = (float) Math.pow(
-									shapeA.getBP(ta) + shapeB.getBP(tb), 
-									2.0f);
-							
-							float distanceSq = 
-									shapeA.getCenter(ta)
-									.sub(shapeB.getCenter(tb))
-									.lengthSquared();
-							
-							if (bpRange <= distanceSq) continue;
-							c = Collision.SATtest(shapeA, ta, shapeB, tb);
-							
-							if (c == null) continue;
-							
-							
-							// Skip the collision if the normal is the wrong way
-							if (!b.oneWayCheck(c.collisionDepth, a.getVelocity(), c.normal) || 
-								!a.oneWayCheck(c.collisionDepth, b.getVelocity(), c.normal.clone().negate())) 
-								continue;
-
-							// Now we sort them
-							if (a.isDynamic()) {
-								c.a = b;
-								c.b = a;
-							} else {
-								c.a = a;
-								c.b = b;
-							}
+			if (pool != null && parallelThreshold <= numPairs) {
+				collideParallel();
+			} else {
+				for (int i = 0; i < numPairs; i++) {
+					collide(pairsA[i], pairsB[i], 0);
+				}
+			}
+			if (stats != null) {
+				long now = System.nanoTime();
+				stats.narrowphaseTime += now - time;
+				time = now;
+				collectNarrowphaseStats();
+			}
+			
+			if (solverIterations != 0) {
+				solver.solve(solverIterations);
+			}
+			if (stats != null) {
+				stats.solverTime += System.nanoTime() - time;
+			}
+			if (tracker != null) {
+				tracker.endStep();
+			}
+			
+			if (sleepingEnabled) {
+				updateSleeping();
+			}
+			
+			// The collisions have moved the bodies
+			queryStale = true;
+		}
+		if (tracker != null) {
+			tracker.endUpdate();
+		}
+		if (stats != null) {
+			stats.updateTime = System.nanoTime() - start;
+			// Hand out the finished stats, and fill the old ones next time
+			WorldStats finished = stats;
+			stats = lastStats;
+			lastStats = finished;
+			if (statsListener != null) {
+				statsListener.updated(this, finished);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the tests counted by the narrow phase to the stats.
+	 */
+	private void collectNarrowphaseStats() {
+		stats.boundsRejections += candidates.boundsRejections;
+		stats.satTests += candidates.satTests;
+		candidates.boundsRejections = 0;
+		candidates.satTests = 0;
+		for (int i = 0; i < buffers.size(); i++) {
+			ContactBuffer buffer = buffers.get(i);
+			stats.boundsRejections += buffer.boundsRejections;
+			stats.satTests += buffer.satTests;
+			buffer.boundsRejections = 0;
+			buffer.satTests = 0;
+		}
+	}
+	
+	/**
+	 * Returns whether or not the world keeps track of what it
+	 * does during each update.
+	 * 
+	 * @return true if stats are enabled.
+	 * @see #getStats()
+	 */
+	public boolean isStatsEnabled() {
+		return stats != null;
+	}
+	
+	/**
+	 * Sets whether or not the world keeps track of what it does
+	 * during each update, see {@link WorldStats}. It's off by
+	 * default, and costs next to nothing when it is.
+	 * 
+	 * @param enabled if stats should be enabled.
+	 */
+	public void setStatsEnabled(boolean enabled) {
+		if (enabled == (stats != null)) return;
+		if (enabled) {
+			stats = new WorldStats();
+			lastStats = new WorldStats();
+			// Forget what was counted while the stats were off
+			candidates.boundsRejections = 0;
+			candidates.satTests = 0;
+			for (int i = 0; i < buffers.size(); i++) {
+				buffers.get(i).boundsRejections = 0;
+				buffers.get(i).satTests = 0;
+			}
+		} else {
+			stats = null;
+			lastStats = null;
+		}
+	}
+	
+	/**
+	 * Returns what the world did during the last update. The
+	 * stats are reused every other update, copy them with
+	 * {@link WorldStats#WorldStats(WorldStats)} to keep them.
+	 * 
+	 * @return the stats of the last update, or null if stats
+	 * are disabled.
+	 * @see #setStatsEnabled(boolean)
+	 */
+	public WorldStats getStats() {
+		return lastStats;
+	}
+	
+	/**
+	 * Returns the listener that is told about the stats
+	 * of every update.
+	 * 
+	 * @return the listener, or null if there is none.
+	 */
+	public WorldStats.Listener getStatsListener() {
+		return statsListener;
+	}
+	
+	/**
+	 * Sets the listener that is told about the stats of every
+	 * update, at the end of the update. Stats have to be enabled
+	 * for the listener to be called.
+	 * 
+	 * @param listener the listener, or null for none.
+	 * @see #setStatsEnabled(boolean)
+	 */
+	public void setStatsListener(WorldStats.Listener listener) {
+		statsListener = listener;
+	}
+	
+	/**
+	 * Filters a pair reported by the broad phase and stores it
+	 * for the narrow phase if it passes.
+	 * 
+	 * @param a the first body.
+	 * @param b the second body.
+	 */
+	private void addPair(Body a, Body b) {
+		if (stats != null) stats.candidatePairs++;
+		// Check if their layers collide
+		if (!Body.layersCollide(a, b)) {
+			if (stats != null) stats.layerRejections++;
+			return;
+		}
+		// Make sure not both are static
+		if (!a.isDynamic() && !b.isDynamic()) {
+			if (stats != null) stats.staticRejections++;
+			return;
+		}
+		// Make sure not both are triggers
+		if (a.isTrigger() && b.isTrigger()) {
+			if (stats != null) stats.triggerRejections++;
+			return;
+		}
+		// Make sure they don't share parent
+		if (a.getParent() == b.getParent() && a.getParent() != null) {
+			if (stats != null) stats.parentRejections++;
+			return;
+		}
+		// Bodies that are resting don't need to be checked against
+		// each other, only triggers need to know they're there
+		if ((a.isSleeping() || !a.isDynamic()) && (b.isSleeping() || !b.isDynamic()) &&
+			!a.isTrigger() && !b.isTrigger()) {
+			if (stats != null) stats.restingRejections++;
+			return;
+		}
+		if (stats != null) stats.pairs++;
+		
+		if (numPairs == pairsA.length) {
+			Body[] grownA = new Body[numPairs * 2];
+			Body[] grownB = new Body[numPairs * 2];
+			System.arraycopy(pairsA, 0, grownA, 0, numPairs);
+			System.arraycopy(pairsB, 0, grownB, 0, numPairs);
+			pairsA = grownA;
+			pairsB = grownB;
+		}
+		pairsA[numPairs] = a;
+		pairsB[numPairs] = b;
+		numPairs++;
+	}
+	
+	/**
+	 * Sorts the pairs by the indices of their bodies, the body that
+	 * comes last in the world comes first in each pair.
+	 */
+	private void sortPairs() {
+		if (pairKeys.length < numPairs) {
+			pairKeys = new long[pairsA.length];
+		}
+		for (int i = 0; i < numPairs; i++) {
+			int a = pairsA[i].index;
+			int b = pairsB[i].index;
+			pairKeys[i] = a < b ?
+					((long) b << 32) | (a & 0xFFFFFFFFL) :
+					((long) a << 32) | (b & 0xFFFFFFFFL);
+		}
+		Arrays.sort(pairKeys, 0, numPairs);
+		for (int i = 0; i < numPairs; i++) {
+			pairsA[i] = bodies.get((int) (pairKeys[i] >>> 32));
+			pairsB[i] = bodies.get((int) pairKeys[i]);
+		}
+	}
+	
+	/**
+	 * Returns the body at the specified index in the world.
+	 * 
+	 * @param index the index of the body.
+	 * @return the body, or null if there is no body at the index.
+	 */
+	Body getBody(int index) {
+		return 0 <= index && index < bodies.size() ? bodies.get(index) : null;
+	}
+	
+	/**
+	 * Checks if the body is in the world, going by its index. The
+	 * indices have to be up to date, bodies that were removed keep
+	 * the index they had.
+	 * 
+	 * @param body the body to check.
+	 * @return true if the body is in the world.
+	 */
+	boolean isInWorld(Body body) {
+		return getBody(body.index) == body;
+	}
+	
+	/**
+	 * Checks two bodies for collisions and solves them.
+	 * 
+	 * @param a the first body.
+	 * @param b the second body.
+	 * @param start the first pair of shapes to check,
+	 * as shapeA * numShapesB + shapeB.
+	 */
+	private void collide(Body a, Body b, int start) {
+		Collision c = contact;
+		int numShapesB = b.getNumberOfShapes();
+		int numCandidates = findCandidates(a, b, candidates);
+		for (int n = 0; n < numCandidates; n++) {
+			int k = candidate(a, b, candidates, n);
+			if (k < start) continue;
+			int i = k / numShapesB;
+			int j = k % numShapesB;
+			
+			// Earlier collisions may have pushed the bodies
+			a.updateCache();
+			b.updateCache();
+			
+			if (!test(a, i, b, j, c, candidates)) continue;
+			resolve(a, b, c, k);
+		}
+	}
+	
+	/**
+	 * Returns the number of shape pairs of two bodies that are worth
+	 * testing. That's every pair, unless one of the bodies is a tile
+	 * map, then only the shapes of the map near the other body are,
+	 * and they are written to the buffer.
+	 * 
+	 * @param a the first body.
+	 * @param b the second body.
+	 * @param buffer the buffer to write the shapes of a tile map to.
+	 * @return the number of candidates.
+	 */
+	private static int findCandidates(Body a, Body b, ContactBuffer buffer) {
+		if (a instanceof TileMapBody) {
+			buffer.findTiles((TileMapBody) a, b);
+			return buffer.numTiles * b.getNumberOfShapes();
+		}
+		if (b instanceof TileMapBody) {
+			buffer.findTiles((TileMapBody) b, a);
+			return a.getNumberOfShapes() * buffer.numTiles;
+		}
+		return a.getNumberOfShapes() * b.getNumberOfShapes();
+	}
+	
+	/**
+	 * Returns a candidate found by {@link #findCandidates(Body, Body, ContactBuffer)}
+	 * as shapeA * numShapesB + shapeB. The candidates come in increasing order.
+	 * 
+	 * @param a the first body.
+	 * @param b the second body.
+	 * @param buffer the buffer the candidates were found with.
+	 * @param n the index of the candidate.
+	 * @return the pair of shapes.
+	 */
+	private static int candidate(Body a, Body b, ContactBuffer buffer, int n) {
+		if (a instanceof TileMapBody) {
+			int numShapesB = b.getNumberOfShapes();
+			return buffer.tiles[n / numShapesB] * numShapesB + n % numShapesB;
+		}
+		if (b instanceof TileMapBody) {
+			return (n / buffer.numTiles) * b.getNumberOfShapes() + buffer.tiles[n % buffer.numTiles];
+		}
+		return n;
+	}
+	
+	/**
+	 * Moves a bullet back along the path it moved this step, to
+	 * where it first touches another body. The path is checked in
+	 * steps of half the smallest shape of the bullet, and the 
+	 * first touch is then narrowed down between the last two steps.
+	 * The bullet is left just touching the body it hit, so the
+	 * collision is found and solved as usual.
+	 * 
+	 * @param b the bullet.
+	 */
+	private void sweep(Body b) {
+		b.updateCache();
+		int numShapes = b.getNumberOfShapes();
+		if (numShapes == 0) return;
+		float extent = Float.MAX_VALUE;
+		float[] bounds = b.shapeBounds;
+		for (int i = 0; i < numShapes; i++) {
+			extent = Math.min(extent, bounds[i * 4 + 2] - bounds[i * 4]);
+			extent = Math.min(extent, bounds[i * 4 + 3] - bounds[i * 4 + 1]);
+		}
+		extent *= 0.5f;
+		
+		float dx = b.getVelocityX() * stepLength;
+		float dy = b.getVelocityY() * stepLength;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy);
+		if (extent <= 0.0f || distance <= extent) return;
+		
+		// Find everything the bullet might pass on the way
+		sweeping = b;
+		numSweepCandidates = 0;
+		broadphase.query(
+				Math.min(b.minX, b.minX - dx), Math.min(b.minY, b.minY - dy),
+				Math.max(b.maxX, b.maxX - dx), Math.max(b.maxY, b.maxY - dy),
+				sweepQuery);
+		sweeping = null;
+		if (numSweepCandidates == 0) return;
+		
+		Vector2f p = b.getTransform().position;
+		float endX = p.x;
+		float endY = p.y;
+		float startX = endX - dx;
+		float startY = endY - dy;
+		
+		// Bodies that are touched from the start, like the floor
+		// the bullet slides on, are left to the regular collisions
+		for (int n = numSweepCandidates - 1; n >= 0; n--) {
+			if (touchesAt(b, startX, startY, dx, dy, 0.0f, n)) {
+				sweepCandidates[n] = sweepCandidates[--numSweepCandidates];
+			}
+		}
+		
+		int steps = (int) Math.ceil(distance / extent);
+		float free = 0.0f;
+		for (int k = 1; k <= steps; k++) {
+			float t = (float) k / steps;
+			if (!touchesAt(b, startX, startY, dx, dy, t)) {
+				free = t;
+				continue;
+			}
+			
+			// Narrow it down, keeping the bullet touching
+			for (int i = 0; i < 8; i++) {
+				float half = (free + t) * 0.5f;
+				if (touchesAt(b, startX, startY, dx, dy, half)) {
+					t = half;
+				} else {
+					free = half;
+				}
+			}
+			p.set(startX + dx * t, startY + dy * t);
+			b.updateCache();
+			return;
+		}
+		p.set(endX, endY);
+		b.updateCache();
+	}
+	
+	/**
+	 * Moves the bullet to a point along its path, and checks if
+	 * it touches any of the candidates there.
+	 */
+	private boolean touchesAt(Body b, float startX, float startY, float dx, float dy, float t) {
+		for (int n = 0; n < numSweepCandidates; n++) {
+			if (touchesAt(b, startX, startY, dx, dy, t, n)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Moves the bullet to a point along its path, and checks if
+	 * it touches the specified candidate there.
+	 */
+	private boolean touchesAt(Body b, float startX, float startY, float dx, float dy, float t, int n) {
+		b.getTransform().position.set(startX + dx * t, startY + dy * t);
+		b.updateCache();
+		Body o = sweepCandidates[n];
+		o.updateCache();
+		if (b.maxX < o.minX || o.maxX < b.minX ||
+			b.maxY < o.minY || o.maxY < b.minY) return false;
+		int numShapes = o.getNumberOfShapes();
+		int numCandidates = findCandidates(b, o, candidates);
+		for (int k = 0; k < numCandidates; k++) {
+			int shapes = candidate(b, o, candidates, k);
+			if (test(b, shapes / numShapes, o, shapes % numShapes, contact, candidates)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Collects the bodies a bullet might hit.
+	 */
+	private void foundOnSweep(Body o) {
+		Body b = sweeping;
+		if (o == b || o.isTrigger() || o.isBullet() || o.isOnlyOverlap()) return;
+		if (!Body.layersCollide(b, o)) return;
+		if (b.getParent() == o.getParent() && b.getParent() != null) return;
+		
+		if (numSweepCandidates == sweepCandidates.length) {
+			Body[] grown = new Body[numSweepCandidates * 2];
+			System.arraycopy(sweepCandidates, 0, grown, 0, numSweepCandidates);
+			sweepCandidates = grown;
+		}
+		sweepCandidates[numSweepCandidates++] = o;
+	}
+	
+	/**
+	 * Tests two shapes for a collision, using the cached
+	 * shape data. Nothing is written outside of the collision,
+	 * so this may be called from multiple threads.
+	 * 
+	 * @param a the first body.
+	 * @param i the shape of the first body.
+	 * @param b the second body.
+	 * @param j the shape of the second body.
+	 * @param c the collision to write to.
+	 * @param counters the buffer to count the tests in.
+	 * @return true if the shapes collide.
+	 */
+	private static boolean test(Body a, int i, Body b, int j, Collision c, ContactBuffer counters) {
+		float[] boundsA = a.shapeBounds;
+		float[] boundsB = b.shapeBounds;
+		
+		// Make sure the bounding boxes overlap
+		if (boundsA[i * 4 + 2] < boundsB[j * 4    ] ||
+			boundsB[j * 4 + 2] < boundsA[i * 4    ] ||
+			boundsA[i * 4 + 3] < boundsB[j * 4 + 1] ||
+			boundsB[j * 4 + 3] < boundsA[i * 4 + 1]) {
+			counters.boundsRejections++;
+			return false;
+		}
+		counters.satTests++;
+		
+		if (!Collision.SATtest(a, i, b, j, c)) return false;
+		
+		// Triggers only need to know that the shapes overlap
+		if (a.isTrigger() || b.isTrigger()) return true;
+		
+		// Skip the collision if the normal is the wrong way
+		Vector2f n = c.normal;
+		return b.oneWayCheck(j, c.collisionDepth, a.getVelocityX(), a.getVelocityY(), n.x, n.y) &&
+				a.oneWayCheck(i, c.collisionDepth, b.getVelocityX(), b.getVelocityY(), -n.x, -n.y);
+	}
+	
+	/**
+	 * Hands a collision to the bodies and solves it.
+	 * 
+	 * @param a the first body.
+	 * @param b the second body.
+	 * @param c the collision between them.
+	 * @param shapes which shapes collided, as shapeA * numShapesB + shapeB.
+	 */
+	private void resolve(Body a, Body b, Collision c, int shapes) {
+		if (stats != null) stats.contacts++;
+		if (tracker != null) {
+			tracker.touch(a, b);
+		}
+		
+		// Sleeping bodies keep the collisions they had when they fell
+		// asleep, they only wake up when something solid hits them
+		if (a.isTrigger() || b.isTrigger()) {
+			if (a.isSleeping() || b.isSleeping()) {
+				if (a.isDynamic()) {
+					c.a = b;
+					c.b = a;
+				} else {
+					c.a = a;
+					c.b = b;
+				}
+				if (!a.isSleeping()) a.addCollision(c);
+				if (!b.isSleeping()) b.addCollision(c);
+				return;
+			}
+		} else {
+			a.wake();
+			b.wake();
+			if (sleepingEnabled && a.isDynamic() && b.isDynamic()) {
+				union(a.index, b.index);
+			}
+		}
+		
+		// Now we sort them
+		if (a.isDynamic()) {
+			c.a = b;
+			c.b = a;
+		} else {
+			c.a = a;
+			c.b = b;
+		}
 
-							// Add their collisions to the bodies
-							a.addCollision(c);
-							b.addCollision(c);
-							
-							// If one of them is a trigger we are done
-							if (a.isTrigger() || b.isTrigger()) continue;
-						
-							c.solve(stepLength);
-						}
+		// Add their collisions to the bodies
+		a.addCollision(c);
+		b.addCollision(c);
+		
+		// If one of them is a trigger we are done
+		if (a.isTrigger() || b.isTrigger()) return;
+		
+		if (solverIterations == 0) {
+			c.solve(stepLength);
+			return;
+		}
+		
+		// Push them apart now, the velocities are solved
+		// together once all contacts are found
+		c.separate();
+		if (a.isOnlyOverlap() || b.isOnlyOverlap()) return;
+		solver.add(c, shapes);
+	}
+	
+	/**
+	 * Gives every body its own island before the collisions are checked.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void prepareIslands() {
+		if (islands.length < bodies.size()) {
+			islands = new int[bodies.size() * 2];
+			islandTimers = new float[bodies.size() * 2];
+			newIslands = new ArrayList[bodies.size() * 2];
+		}
+		for (int i = 0; i < bodies.size(); i++) {
+			islands[i] = i;
+			islandTimers[i] = Float.MAX_VALUE;
+		}
+	}
+	
+	/**
+	 * Finds the island of the body with the specified index.
+	 */
+	private int find(int i) {
+		while (islands[i] != i) {
+			// Halve the path on the way up
+			islands[i] = islands[islands[i]];
+			i = islands[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * Merges the islands of the two bodies.
+	 */
+	private void union(int a, int b) {
+		a = find(a);
+		b = find(b);
+		if (a != b) {
+			islands[a] = b;
+		}
+	}
+	
+	/**
+	 * Counts up the sleep timers of all slow bodies, and puts
+	 * the islands where every body has been slow for long enough
+	 * to sleep.
+	 */
+	private void updateSleeping() {
+		// Resting contacts jitter a little every step, so the speed is
+		// measured as the drift from where the body came to rest
+		float drift = sleepVelocity * timeToSleep;
+		float limit = drift * drift;
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			if (b.isSleeping() || !b.isDynamic() || b.isTrigger()) continue;
+			
+			float x = b.getTransform().position.x;
+			float y = b.getTransform().position.y;
+			float dx = x - b.restX;
+			float dy = y - b.restY;
+			if (b.sleepTimer != 0.0f && dx * dx + dy * dy < limit) {
+				b.sleepTimer += stepLength;
+			} else {
+				b.restX = x;
+				b.restY = y;
+				b.sleepTimer = stepLength;
+			}
+			
+			// An island is only as sleepy as its most awake body
+			int root = find(i);
+			float timer = b.isSleepingAllowed() ? b.sleepTimer : -1.0f;
+			islandTimers[root] = Math.min(islandTimers[root], timer);
+		}
+		
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			if (b.isSleeping() || !b.isDynamic() || b.isTrigger()) continue;
+			
+			int root = find(i);
+			if (islandTimers[root] < timeToSleep) continue;
+			
+			// The first body of each island creates the list
+			if (newIslands[root] == null) {
+				newIslands[root] = new ArrayList<>();
+			}
+			newIslands[root].add(b);
+			b.sleep(newIslands[root]);
+		}
+		
+		for (int i = 0; i < bodies.size(); i++) {
+			newIslands[i] = null;
+		}
+	}
+	
+	/**
+	 * Finds the first body hit by a ray. Only bodies that share a
+	 * layer with the supplied layer and have the supplied tag are
+	 * considered. Bodies the ray starts inside of are not hit.
+	 * <p>
+	 * The bodies are looked up where they were after the last step,
+	 * bodies that have been moved since may be missed.
+	 * </p>
+	 * 
+	 * @param from the start of the ray.
+	 * @param to the end of the ray.
+	 * @param layer the layers to look for bodies in.
+	 * @param tag the tag to look for, or null for all tags.
+	 * @param hit the hit to write the result to.
+	 * @return true if a body was hit.
+	 */
+	public boolean raycast(Vector2f from, Vector2f to, short layer, String tag, RaycastHit hit) {
+		hit.reset();
+		queryLayer = layer;
+		queryTag = tag;
+		queryTagId = Tags.findId(tag);
+		queryHit = hit;
+		queryX = from.x;
+		queryY = from.y;
+		queryDX = to.x - from.x;
+		queryDY = to.y - from.y;
+		refreshQueries();
+		broadphase.raycast(from.x, from.y, to.x, to.y, rayQuery);
+		triggers.raycast(from.x, from.y, to.x, to.y, rayQuery);
+		queryHit = null;
+		return hit.body != null;
+	}
+	
+	/**
+	 * Finds all bodies with a shape that overlaps the box. Only bodies
+	 * that share a layer with the supplied layer and have the supplied
+	 * tag are considered. If there are more bodies than fit in the
+	 * result, the rest are skipped.
+	 * <p>
+	 * The bodies are looked up where they were after the last step,
+	 * bodies that have been moved since may be missed.
+	 * </p>
+	 * 
+	 * @param min the bottom left corner of the box.
+	 * @param max the top right corner of the box.
+	 * @param layer the layers to look for bodies in.
+	 * @param tag the tag to look for, or null for all tags.
+	 * @param result the array to write the bodies to.
+	 * @return the number of bodies written to the result.
+	 */
+	public int queryAABB(Vector2f min, Vector2f max, short layer, String tag, Body[] result) {
+		startQuery(layer, tag, result);
+		queryBounds[0] = min.x;
+		queryBounds[1] = min.y;
+		queryBounds[2] = max.x;
+		queryBounds[3] = max.y;
+		broadphase.query(min.x, min.y, max.x, max.y, aabbQuery);
+		triggers.query(min.x, min.y, max.x, max.y, aabbQuery);
+		return endQuery();
+	}
+	
+	/**
+	 * Finds all bodies with a shape that contains the point. Only bodies
+	 * that share a layer with the supplied layer and have the supplied
+	 * tag are considered. If there are more bodies than fit in the
+	 * result, the rest are skipped.
+	 * <p>
+	 * The bodies are looked up where they were after the last step,
+	 * bodies that have been moved since may be missed.
+	 * </p>
+	 * 
+	 * @param point the point to look at.
+	 * @param layer the layers to look for bodies in.
+	 * @param tag the tag to look for, or null for all tags.
+	 * @param result the array to write the bodies to.
+	 * @return the number of bodies written to the result.
+	 */
+	public int queryPoint(Vector2f point, short layer, String tag, Body[] result) {
+		startQuery(layer, tag, result);
+		queryX = point.x;
+		queryY = point.y;
+		broadphase.query(point.x, point.y, point.x, point.y, pointQuery);
+		triggers.query(point.x, point.y, point.x, point.y, pointQuery);
+		return endQuery();
+	}
+	
+	/**
+	 * Finds all bodies that overlap a shape, without adding anything
+	 * to the world. Only bodies that share a layer with the supplied
+	 * layer and have the supplied tag are considered. If there are
+	 * more bodies than fit in the result, the rest are skipped.
+	 * <p>
+	 * The bodies are looked up where they were after the last step,
+	 * bodies that have been moved since may be missed.
+	 * </p>
+	 * 
+	 * @param shape the shape to check against.
+	 * @param transform where the shape is.
+	 * @param layer the layers to look for bodies in.
+	 * @param tag the tag to look for, or null for all tags.
+	 * @param result the array to write the bodies to.
+	 * @return the number of bodies written to the result.
+	 */
+	public int overlapShape(Shape shape, Transform transform, short layer, String tag, Body[] result) {
+		startQuery(layer, tag, result);
+		queryShape = shape;
+		queryTransform = transform;
+		float[] b = shape.getAABB(transform, queryBounds, 0);
+		broadphase.query(b[0], b[1], b[2], b[3], shapeQuery);
+		triggers.query(b[0], b[1], b[2], b[3], shapeQuery);
+		queryShape = null;
+		queryTransform = null;
+		return endQuery();
+	}
+	
+	/**
+	 * Brings the broad phase up to date, if the last step
+	 * moved the bodies after it was updated.
+	 */
+	private void refreshQueries() {
+		if (queryStale) {
+			triggers.update(bodies, broadphase);
+			broadphase.update();
+			queryStale = false;
+		}
+	}
+	
+	private void startQuery(short layer, String tag, Body[] result) {
+		refreshQueries();
+		queryLayer = layer;
+		queryTag = tag;
+		queryTagId = Tags.findId(tag);
+		queryResult = result;
+		queryCount = 0;
+	}
+	
+	private int endQuery() {
+		queryResult = null;
+		return queryCount;
+	}
+	
+	/**
+	 * Checks if the body passes the filters of the running query,
+	 * and makes sure its cache is up to date if it does.
+	 */
+	private boolean accept(Body b) {
+		if ((b.getLayer() & queryLayer) == 0) return false;
+		if (queryTag != null && queryTagId != b.getTagId()) return false;
+		b.updateCache();
+		return true;
+	}
+	
+	private void collect(Body b) {
+		if (queryCount < queryResult.length) {
+			queryResult[queryCount++] = b;
+		}
+	}
+	
+	private void foundInAABB(Body b) {
+		if (!accept(b)) return;
+		float[] q = queryBounds;
+		float[] bounds = b.shapeBounds;
+		for (int i = 0; i < b.getNumberOfShapes(); i++) {
+			if (bounds[i * 4 + 2] < q[0] || q[2] < bounds[i * 4] ||
+				bounds[i * 4 + 3] < q[1] || q[3] < bounds[i * 4 + 1]) continue;
+			collect(b);
+			return;
+		}
+	}
+	
+	private void foundAtPoint(Body b) {
+		if (!accept(b)) return;
+		for (int i = 0; i < b.getNumberOfShapes(); i++) {
+			if (b.contains(i, queryX, queryY)) {
+				collect(b);
+				return;
+			}
+		}
+	}
+	
+	private void foundInShape(Body b) {
+		if (!accept(b)) return;
+		for (int i = 0; i < b.getNumberOfShapes(); i++) {
+			if (Collision.SATtest(queryShape, queryTransform, b.getShape(i), b.getTransform(), queryContact)) {
+				collect(b);
+				return;
+			}
+		}
+	}
+	
+	private void foundOnRay(Body b) {
+		if (!accept(b)) return;
+		for (int i = 0; i < b.getNumberOfShapes(); i++) {
+			b.raycast(i, queryX, queryY, queryDX, queryDY, queryHit);
+		}
+	}
+	
+	/**
+	 * Returns whether or not the world keeps track of when
+	 * bodies start and stop touching.
+	 * 
+	 * @return true if contact events are enabled.
+	 */
+	public boolean isContactEventsEnabled() {
+		return tracker != null;
+	}
+	
+	/**
+	 * Sets whether or not the world keeps track of when bodies
+	 * start and stop touching. This costs a little for every
+	 * collision, so it's off by default.
+	 * 
+	 * @param enabled if contact events should be enabled.
+	 */
+	public void setContactEventsEnabled(boolean enabled) {
+		if (enabled == (tracker != null)) return;
+		tracker = enabled ? new ContactTracker() : null;
+	}
+	
+	/**
+	 * Returns the pairs of bodies that started touching during
+	 * the last update. A pair may also have stopped touching again
+	 * if the update took more than one step.
+	 * <p>
+	 * The list and the events are reused on the next update.
+	 * </p>
+	 * 
+	 * @return the pairs that started touching, empty if contact
+	 * events are disabled.
+	 * @see #setContactEventsEnabled(boolean)
+	 */
+	public List<ContactEvent> getBeginContacts() {
+		return tracker != null ? tracker.begins : Collections.<ContactEvent>emptyList();
+	}
+	
+	/**
+	 * Returns the pairs of bodies that were touching before the
+	 * last update and still are.
+	 * <p>
+	 * The list and the events are reused on the next update.
+	 * </p>
+	 * 
+	 * @return the pairs that kept touching, empty if contact
+	 * events are disabled.
+	 * @see #setContactEventsEnabled(boolean)
+	 */
+	public List<ContactEvent> getStayContacts() {
+		return tracker != null ? tracker.stays : Collections.<ContactEvent>emptyList();
+	}
+	
+	/**
+	 * Returns the pairs of bodies that stopped touching during the
+	 * last update, or that were touching when one of them was removed
+	 * from the world.
+	 * <p>
+	 * The list and the events are reused on the next update.
+	 * </p>
+	 * 
+	 * @return the pairs that stopped touching, empty if contact
+	 * events are disabled.
+	 * @see #setContactEventsEnabled(boolean)
+	 */
+	public List<ContactEvent> getEndContacts() {
+		return tracker != null ? tracker.ends : Collections.<ContactEvent>emptyList();
+	}
+	
+	/**
+	 * Returns the number of times the contact solver visits
+	 * each contact every step.
+	 * 
+	 * @return the number of solver iterations, 0 if the contacts
+	 * are solved one at a time as they are found.
+	 */
+	public int getSolverIterations() {
+		return solverIterations;
+	}
+	
+	/**
+	 * Sets the number of times the contact solver visits each contact
+	 * every step. With 0 iterations, each contact is solved on its
+	 * own as soon as it's found. Otherwise all contacts are solved
+	 * together once they have been found, starting from the impulses
+	 * of the last step. This keeps stacks of bodies steady, usually
+	 * 4 to 10 iterations are enough.
+	 * 
+	 * @param solverIterations the number of iterations.
+	 * @throws IllegalArgumentException if the number of iterations is negative.
+	 */
+	public void setSolverIterations(int solverIterations) {
+		if (solverIterations < 0) {
+			throw new IllegalArgumentException("Negative number of solver iterations supplied.");
+		}
+		this.solverIterations = solverIterations;
+		if (solverIterations == 0) {
+			solver.clear();
+		}
+	}
+	
+	/**
+	 * Returns whether or not the bodies of this world are packed
+	 * together.
+	 * 
+	 * @return true if the bodies are packed.
+	 */
+	public boolean isPacked() {
+		return storage != null;
+	}
+	
+	/**
+	 * Sets whether or not the world should pack the velocities, forces,
+	 * masses and flags of its bodies into shared arrays. Packed bodies
+	 * are moved by a single loop over the arrays, instead of stepping
+	 * each body on its own. The bodies work exactly the same either way,
+	 * a body that is removed from the world gets its state back.
+	 * 
+	 * @param packed if the bodies should be packed.
+	 */
+	public void setPacked(boolean packed) {
+		if (packed == isPacked()) return;
+		if (packed) {
+			storage = new BodyStorage(Math.max(16, bodies.size()));
+			for (Body b : bodies) {
+				b.pack(storage);
+			}
+		} else {
+			// Back to front, so each body is the last one in the storage
+			for (int i = bodies.size() - 1; i >= 0; i--) {
+				bodies.get(i).unpack();
+			}
+			storage = null;
+		}
+	}
+	
+	/**
+	 * Sets whether or not bodies on two layers collide. By default
+	 * every layer only collides with itself, so two bodies collide
+	 * if they share a layer. The matrix is symmetric, so the order
+	 * of the layers doesn't matter.
+	 * <p>
+	 * Pairs of layers that never collide are dropped by the broad
+	 * phase before their bounds are even compared.
+	 * </p>
+	 * 
+	 * @param layerA the index of the first layer, from 0 to 15.
+	 * @param layerB the index of the second layer, from 0 to 15.
+	 * @param collide if bodies on the two layers should collide.
+	 * @throws IllegalArgumentException if a layer is outside of 0 to 15.
+	 */
+	public void setLayersCollide(int layerA, int layerB, boolean collide) {
+		if (layerA < 0 || 16 <= layerA || layerB < 0 || 16 <= layerB) {
+			throw new IllegalArgumentException("Layer outside of 0 to 15 supplied.");
+		}
+		if (collide) {
+			layerMatrix[layerA] |= 1 << layerB;
+			layerMatrix[layerB] |= 1 << layerA;
+		} else {
+			layerMatrix[layerA] &= ~(1 << layerB);
+			layerMatrix[layerB] &= ~(1 << layerA);
+		}
+		buildLayerMasks();
+	}
+	
+	/**
+	 * Returns whether or not bodies on two layers collide.
+	 * 
+	 * @param layerA the index of the first layer, from 0 to 15.
+	 * @param layerB the index of the second layer, from 0 to 15.
+	 * @return true if bodies on the two layers collide.
+	 * @throws IllegalArgumentException if a layer is outside of 0 to 15.
+	 * @see #setLayersCollide(int, int, boolean)
+	 */
+	public boolean getLayersCollide(int layerA, int layerB) {
+		if (layerA < 0 || 16 <= layerA || layerB < 0 || 16 <= layerB) {
+			throw new IllegalArgumentException("Layer outside of 0 to 15 supplied.");
+		}
+		return (layerMatrix[layerA] & (1 << layerB)) != 0;
+	}
+	
+	/**
+	 * Returns all the layers a body on the specified layers collides with.
+	 * 
+	 * @param layer the layer bit map of the body.
+	 * @return the layers the body collides with.
+	 */
+	public short getLayerMask(short layer) {
+		return (short) (lowerMasks[layer & 0xFF] | upperMasks[(layer >>> 8) & 0xFF]);
+	}
+	
+	/**
+	 * Works out the layers every combination of the lower
+	 * and of the upper eight layers collide with.
+	 */
+	private void buildLayerMasks() {
+		for (int bits = 0; bits < 256; bits++) {
+			short lower = 0;
+			short upper = 0;
+			for (int i = 0; i < 8; i++) {
+				if ((bits & (1 << i)) == 0) continue;
+				lower |= layerMatrix[i];
+				upper |= layerMatrix[i + 8];
+			}
+			lowerMasks[bits] = lower;
+			upperMasks[bits] = upper;
+		}
+	}
+	
+	/**
+	 * Returns whether or not bodies may fall asleep in this world.
+	 * 
+	 * @return true if sleeping is enabled.
+	 */
+	public boolean isSleepingEnabled() {
+		return sleepingEnabled;
+	}
+	
+	/**
+	 * Sets whether or not bodies may fall asleep in this world. A 
+	 * sleeping body costs nothing to update and is not checked for
+	 * collisions against other sleeping or static bodies. Bodies 
+	 * fall asleep together with everything they touch, once all of
+	 * them have been slower than the sleep velocity for the time to sleep.
+	 * 
+	 * @param sleepingEnabled if bodies may sleep.
+	 */
+	public void setSleepingEnabled(boolean sleepingEnabled) {
+		this.sleepingEnabled = sleepingEnabled;
+		if (!sleepingEnabled) {
+			for (Body b : bodies) {
+				b.wake();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the speed a body has to stay below to fall asleep.
+	 * The speed is measured as how far the body drifts from where
+	 * it came to rest during the time to sleep.
+	 * 
+	 * @return the sleep velocity.
+	 */
+	public float getSleepVelocity() {
+		return sleepVelocity;
+	}
+	
+	/**
+	 * Sets the speed a body has to stay below to fall asleep.
+	 * 
+	 * @param sleepVelocity the new sleep velocity.
+	 * @throws IllegalArgumentException if the velocity is negative.
+	 */
+	public void setSleepVelocity(float sleepVelocity) {
+		if (sleepVelocity < 0.0f) {
+			throw new IllegalArgumentException("Negative sleep velocity supplied.");
+		}
+		this.sleepVelocity = sleepVelocity;
+	}
+	
+	/**
+	 * Returns the time, in seconds, a body has to stay slow to fall asleep.
+	 * 
+	 * @return the time to sleep.
+	 */
+	public float getTimeToSleep() {
+		return timeToSleep;
+	}
+	
+	/**
+	 * Sets the time, in seconds, a body has to stay slow to fall asleep.
+	 * 
+	 * @param timeToSleep the new time to sleep.
+	 * @throws IllegalArgumentException if the time is negative.
+	 */
+	public void setTimeToSleep(float timeToSleep) {
+		if (timeToSleep < 0.0f) {
+			throw new IllegalArgumentException("Negative time to sleep supplied.");
+		}
+		this.timeToSleep = timeToSleep;
+	}
+	
+	/**
+	 * Runs the collision tests on the pool, each chunk of pairs
+	 * into its own buffer. The buffers are then merged in pair
+	 * order, which gives the exact same result as the serial path.
+	 */
+	private void collideParallel() {
+		chunkSize = Math.max(32, numPairs / (pool.getParallelism() * 4));
+		int numChunks = (numPairs + chunkSize - 1) / chunkSize;
+		while (buffers.size() < numChunks) {
+			buffers.add(new ContactBuffer());
+		}
+		for (int i = 0; i < numPairs; i++) {
+			pairsA[i].testedVersion = pairsA[i].cacheVersion;
+			pairsB[i].testedVersion = pairsB[i].cacheVersion;
+		}
+		
+		pool.invoke(new NarrowphaseTask(0, numChunks));
+		
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			ContactBuffer buffer = buffers.get(chunk);
+			int next = 0;
+			int end = Math.min(numPairs, (chunk + 1) * chunkSize);
+			for (int p = chunk * chunkSize; p < end; p++) {
+				Body a = pairsA[p];
+				Body b = pairsB[p];
+				
+				// The tests were run before anything was pushed, if one
+				// of the bodies has moved since, they have to be redone.
+				if (a.hasMovedSinceTest() || b.hasMovedSinceTest()) {
+					while (next < buffer.size && buffer.pairs[next] == p) next++;
+					collide(a, b, 0);
+					continue;
+				}
+				
+				while (next < buffer.size && buffer.pairs[next] == p) {
+					int shapes = buffer.shapes[next];
+					resolve(a, b, buffer.contacts[next++], shapes);
+					if (a.hasMovedSinceTest() || b.hasMovedSinceTest()) {
+						// Pick up where the solve left off
+						while (next < buffer.size && buffer.pairs[next] == p) next++;
+						collide(a, b, shapes + 1);
+						break;
 					}
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Tests a chunk of pairs, writing the contacts to the buffer.
+	 * 
+	 * @param chunk the index of the chunk.
+	 */
+	private void testChunk(int chunk) {
+		ContactBuffer buffer = buffers.get(chunk);
+		buffer.clear();
+		int end = Math.min(numPairs, (chunk + 1) * chunkSize);
+		for (int p = chunk * chunkSize; p < end; p++) {
+			Body a = pairsA[p];
+			Body b = pairsB[p];
+			int numShapesB = b.getNumberOfShapes();
+			int numCandidates = findCandidates(a, b, buffer);
+			for (int n = 0; n < numCandidates; n++) {
+				int k = candidate(a, b, buffer, n);
+				if (test(a, k / numShapesB, b, k % numShapesB, buffer.next(), buffer)) {
+					buffer.commit(p, k);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Splits the chunks of pairs over the pool.
+	 */
+	@SuppressWarnings("serial")
+	private class NarrowphaseTask extends RecursiveAction {
+		
+		private final int from, to;
+		
+		NarrowphaseTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				testChunk(from);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new NarrowphaseTask(from, mid), new NarrowphaseTask(mid, to));
+		}
+	}
+	
+	/**
+	 * Returns the pool the narrow phase runs on, or null if it
+	 * runs on the calling thread.
+	 * 
+	 * @return the narrow phase pool.
+	 */
+	public ForkJoinPool getParallelPool() {
+		return pool;
+	}
+	
+	/**
+	 * Sets the pool the narrow phase should run the collision tests on.
+	 * The contacts are still solved on the calling thread, in the same
+	 * order as without a pool, so the results are exactly the same.
+	 * 
+	 * @param pool the pool to use, or null to run everything on the 
+	 * calling thread.
+	 */
+	public void setParallelPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Returns the number of pairs needed for the narrow phase to run
+	 * in parallel.
+	 * 
+	 * @return the parallel threshold.
+	 */
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	/**
+	 * Sets the number of pairs needed for the narrow phase to run in
+	 * parallel, if there is a pool. With few pairs it's not worth
+	 * the overhead.
+	 * 
+	 * @param parallelThreshold the minimum number of pairs.
+	 * @throws IllegalArgumentException if the threshold is negative.
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		if (parallelThreshold < 0) {
+			throw new IllegalArgumentException("Negative parallel threshold supplied.");
+		}
+		this.parallelThreshold = parallelThreshold;
+	}
+	
+	/**
+	 * Returns the broad phase used by this world.
+	 * 
+	 * @return the broad phase.
+	 */
+	public Broadphase getBroadphase() {
+		return broadphase;
+	}
+	
+	/**
+	 * Sets the broad phase used to find the bodies that are
+	 * close enough to collide. All bodies in the world are moved
+	 * over to the new broad phase, except the static triggers,
+	 * which the world keeps in a set of their own.
+	 * 
+	 * @param broadphase the new broad phase.
+	 * @throws IllegalArgumentException if the broad phase is null.
+	 */
+	public void setBroadphase(Broadphase broadphase) {
+		if (broadphase == null) throw new IllegalArgumentException("Broadphase passed to world is null");
+		for (Body b : bodies) {
+			// The static triggers stay where they are
+			if (b.inTriggerSet) continue;
+			if (this.broadphase != null) {
+				this.broadphase.remove(b);
+			}
+			broadphase.add(b);
+		}
+		this.broadphase = broadphase;
+		queryStale = true;
+	}
+	
 	/**
 	 * Adds the body of an entity.
 	 * 
@@ -0,0 +1,254 @@
+package sk.physics;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A group of independent worlds that are updated together,
+ * each world on its own task. An update of the group returns
+ * once every world is done, so the worlds can be read and
+ * changed from the calling thread between updates, just like
+ * a single world.
+ * <p>
+ * The worlds must not share any bodies, and nothing else may
+ * touch them while the group is updating. The time each world
+ * took in the last update is kept, to find the worlds that
+ * hold the others up.
+ * </p>
+ * <pre>
+ * WorldGroup rooms = new WorldGroup(Executors.newFixedThreadPool(8));
+ * rooms.add(world);
+ * ...
+ * rooms.update(delta);
+ * </pre>
+ *
+ */
+public class WorldGroup {
+
+	private ArrayList<World> worlds = new ArrayList<>();
+	private Executor executor;
+
+	// One task for each world, reused every update
+	private ArrayList<Task> tasks = new ArrayList<>();
+	private double delta;
+	private CountDownLatch done;
+	private Throwable failure;
+
+	// The time of the last update, in seconds
+	private double updateTime = 0.0;
+
+	/**
+	 * Creates a new empty group that updates its
+	 * worlds on the common fork join pool.
+	 */
+	public WorldGroup() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a new empty group.
+	 *
+	 * @param executor the executor to update the worlds on.
+	 * @throws IllegalArgumentException if the executor is null.
+	 */
+	public WorldGroup(Executor executor) {
+		setExecutor(executor);
+	}
+
+	/**
+	 * Adds a world to the group.
+	 *
+	 * @param world the world to add.
+	 * @throws IllegalArgumentException if the world is null.
+	 */
+	public void add(World world) {
+		if (world == null) throw new IllegalArgumentException("World passed to group is null");
+		if (worlds.contains(world)) return;
+		worlds.add(world);
+		tasks.add(new Task(world));
+	}
+
+	/**
+	 * Removes a world from the group, if it is in it.
+	 *
+	 * @param world the world to remove.
+	 */
+	public void remove(World world) {
+		int i = worlds.indexOf(world);
+		if (i == -1) return;
+		worlds.remove(i);
+		tasks.remove(i);
+	}
+
+	/**
+	 * Returns the number of worlds in the group.
+	 *
+	 * @return the number of worlds.
+	 */
+	public int size() {
+		return worlds.size();
+	}
+
+	/**
+	 * Returns the world with the specified index.
+	 *
+	 * @param i the index of the world.
+	 * @return the world.
+	 */
+	public World getWorld(int i) {
+		return worlds.get(i);
+	}
+
+	/**
+	 * Updates every world in the group with the same delta, and
+	 * waits until all of them are done. If a world throws, the
+	 * other worlds are still updated, and the first exception is
+	 * thrown once they all are.
+	 *
+	 * @param delta the time passed since the previous frame.
+	 * @see World#update(double)
+	 */
+	public void update(double delta) {
+		long start = System.nanoTime();
+		this.delta = delta;
+		failure = null;
+		done = new CountDownLatch(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			Task task = tasks.get(i);
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// Do it here instead of leaving the world behind
+				task.run();
+			}
+		}
+
+		// The worlds are in the middle of their updates,
+		// so this has to wait for them no matter what
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		done = null;
+		updateTime = (System.nanoTime() - start) / 1000000000d;
+
+		Throwable t = failure;
+		failure = null;
+		if (t instanceof RuntimeException) throw (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		if (t != null) throw new RuntimeException(t);
+	}
+
+	private synchronized void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+	}
+
+	/**
+	 * Returns how long the last update of the whole group took,
+	 * from the start of the first world to the end of the last.
+	 *
+	 * @return the time in seconds.
+	 */
+	public double getUpdateTime() {
+		return updateTime;
+	}
+
+	/**
+	 * Returns how long a world took in the last update.
+	 *
+	 * @param i the index of the world.
+	 * @return the time in seconds.
+	 */
+	public double getUpdateTime(int i) {
+		return tasks.get(i).time;
+	}
+
+	/**
+	 * Returns how long a world took in the last update.
+	 *
+	 * @param world the world.
+	 * @return the time in seconds, 0 if the world isn't in the group.
+	 */
+	public double getUpdateTime(World world) {
+		int i = worlds.indexOf(world);
+		return i == -1 ? 0.0 : tasks.get(i).time;
+	}
+
+	/**
+	 * Returns the world that took the longest in the last update.
+	 *
+	 * @return the slowest world, or null if the group is empty.
+	 */
+	public World getSlowestWorld() {
+		World slowest = null;
+		double time = -1.0;
+		for (int i = 0; i < tasks.size(); i++) {
+			if (time < tasks.get(i).time) {
+				time = tasks.get(i).time;
+				slowest = worlds.get(i);
+			}
+		}
+		return slowest;
+	}
+
+	/**
+	 * Returns the executor the worlds are updated on.
+	 *
+	 * @return the executor.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor the worlds are updated on. Executors
+	 * that reject tasks have them run on the calling thread.
+	 *
+	 * @param executor the new executor.
+	 * @throws IllegalArgumentException if the executor is null.
+	 */
+	public void setExecutor(Executor executor) {
+		if (executor == null) throw new IllegalArgumentException("Executor passed to group is null");
+		this.executor = executor;
+	}
+
+	/**
+	 * Updates one of the worlds and times it.
+	 */
+	private class Task implements Runnable {
+
+		private final World world;
+		// The time of the last update, in seconds
+		private volatile double time = 0.0;
+
+		Task(World world) {
+			this.world = world;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				world.update(delta);
+			} catch (Throwable t) {
+				fail(t);
+			} finally {
+				time = (System.nanoTime() - start) / 1000000000d;
+				done.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package sk.physics;
+
+/**
+ * What a world did during one update, added up over all the
+ * steps it took. The counters follow the bodies through the
+ * world: how many were moved, how many pairs the broad phase
+ * found and why the ones that were dropped were dropped, how
+ * many shapes were tested and how many contacts came out of it.
+ * The times say where the update spent its time.
+ * <p>
+ * The world only collects the numbers when it is asked to, see
+ * {@link World#setStatsEnabled(boolean)}.
+ * </p>
+ *
+ */
+public class WorldStats {
+
+	/**
+	 * Is told about the stats of every update of a world.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called at the end of every update. The stats are reused
+		 * by the world, copy them to keep them around.
+		 *
+		 * @param world the world that was updated.
+		 * @param stats what the world did during the update.
+		 */
+		public void updated(World world, WorldStats stats);
+	}
+
+	int steps;
+	int bodiesIntegrated;
+	int candidatePairs;
+	int layerRejections;
+	int staticRejections;
+	int triggerRejections;
+	int parentRejections;
+	int restingRejections;
+	int pairs;
+	int boundsRejections;
+	int satTests;
+	int contacts;
+
+	// The times, in nanoseconds
+	long integrateTime;
+	long broadphaseTime;
+	long narrowphaseTime;
+	long solverTime;
+	long updateTime;
+
+	/**
+	 * Creates new stats where everything is zero.
+	 */
+	public WorldStats() {}
+
+	/**
+	 * Creates a copy of the specified stats.
+	 *
+	 * @param stats the stats to copy.
+	 */
+	public WorldStats(WorldStats stats) {
+		set(stats);
+	}
+
+	/**
+	 * Copies the specified stats into these.
+	 *
+	 * @param stats the stats to copy.
+	 */
+	public void set(WorldStats stats) {
+		steps = stats.steps;
+		bodiesIntegrated = stats.bodiesIntegrated;
+		candidatePairs = stats.candidatePairs;
+		layerRejections = stats.layerRejections;
+		staticRejections = stats.staticRejections;
+		triggerRejections = stats.triggerRejections;
+		parentRejections = stats.parentRejections;
+		restingRejections = stats.restingRejections;
+		pairs = stats.pairs;
+		boundsRejections = stats.boundsRejections;
+		satTests = stats.satTests;
+		contacts = stats.contacts;
+		integrateTime = stats.integrateTime;
+		broadphaseTime = stats.broadphaseTime;
+		narrowphaseTime = stats.narrowphaseTime;
+		solverTime = stats.solverTime;
+		updateTime = stats.updateTime;
+	}
+
+	/**
+	 * Sets everything back to zero.
+	 */
+	void reset() {
+		steps = 0;
+		bodiesIntegrated = 0;
+		candidatePairs = 0;
+		layerRejections = 0;
+		staticRejections = 0;
+		triggerRejections = 0;
+		parentRejections = 0;
+		restingRejections = 0;
+		pairs = 0;
+		boundsRejections = 0;
+		satTests = 0;
+		contacts = 0;
+		integrateTime = 0;
+		broadphaseTime = 0;
+		narrowphaseTime = 0;
+		solverTime = 0;
+		updateTime = 0;
+	}
+
+	/**
+	 * Returns the number of steps taken in the update.
+	 *
+	 * @return the number of steps.
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the number of times a body was moved, bodies that
+	 * are asleep aren't.
+	 *
+	 * @return the number of bodies integrated.
+	 */
+	public int getBodiesIntegrated() {
+		return bodiesIntegrated;
+	}
+
+	/**
+	 * Returns the number of pairs the broad phase found. Pairs
+	 * of layers that don't collide are dropped in the broad
+	 * phase already, and aren't counted.
+	 *
+	 * @return the number of candidate pairs.
+	 */
+	public int getCandidatePairs() {
+		return candidatePairs;
+	}
+
+	/**
+	 * Returns the number of pairs that were dropped because their
+	 * layers don't collide. Most are dropped by the broad phase,
+	 * before their bounds are compared, so depending on the broad
+	 * phase these can include pairs that weren't touching anyway.
+	 * Bodies that the broad phase skips all at once, because
+	 * nothing near them is on a layer they collide with, are not
+	 * counted.
+	 *
+	 * @return the number of pairs dropped.
+	 */
+	public int getLayerRejections() {
+		return layerRejections;
+	}
+
+	/**
+	 * Returns the number of candidate pairs that were dropped
+	 * because both bodies are static.
+	 *
+	 * @return the number of pairs dropped.
+	 */
+	public int getStaticRejections() {
+		return staticRejections;
+	}
+
+	/**
+	 * Returns the number of candidate pairs that were dropped
+	 * because both bodies are triggers.
+	 *
+	 * @return the number of pairs dropped.
+	 */
+	public int getTriggerRejections() {
+		return triggerRejections;
+	}
+
+	/**
+	 * Returns the number of candidate pairs that were dropped
+	 * because both bodies belong to the same entity.
+	 *
+	 * @return the number of pairs dropped.
+	 */
+	public int getParentRejections() {
+		return parentRejections;
+	}
+
+	/**
+	 * Returns the number of candidate pairs that were dropped
+	 * because neither body can move.
+	 *
+	 * @return the number of pairs dropped.
+	 */
+	public int getRestingRejections() {
+		return restingRejections;
+	}
+
+	/**
+	 * Returns the number of pairs that passed all the filters
+	 * and went on to the narrow phase.
+	 *
+	 * @return the number of pairs.
+	 */
+	public int getPairs() {
+		return pairs;
+	}
+
+	/**
+	 * Returns the number of pairs of shapes that were dropped
+	 * because their bounds don't overlap.
+	 *
+	 * @return the number of shape pairs dropped.
+	 */
+	public int getBoundsRejections() {
+		return boundsRejections;
+	}
+
+	/**
+	 * Returns the number of pairs of shapes that were tested
+	 * with the separating axis test.
+	 *
+	 * @return the number of tests.
+	 */
+	public int getSATTests() {
+		return satTests;
+	}
+
+	/**
+	 * Returns the number of contacts that were handed to the bodies.
+	 *
+	 * @return the number of contacts.
+	 */
+	public int getContacts() {
+		return contacts;
+	}
+
+	/**
+	 * Returns the time spent moving the bodies, bullet sweeps included.
+	 *
+	 * @return the time in seconds.
+	 */
+	public double getIntegrateTime() {
+		return integrateTime / 1000000000d;
+	}
+
+	/**
+	 * Returns the time spent finding the pairs.
+	 *
+	 * @return the time in seconds.
+	 */
+	public double getBroadphaseTime() {
+		return broadphaseTime / 1000000000d;
+	}
+
+	/**
+	 * Returns the time spent testing the pairs and handling the
+	 * contacts, which includes pushing the bodies apart when the
+	 * solver isn't used.
+	 *
+	 * @return the time in seconds.
+	 */
+	public double getNarrowphaseTime() {
+		return narrowphaseTime / 1000000000d;
+	}
+
+	/**
+	 * Returns the time spent in the contact solver.
+	 *
+	 * @return the time in seconds.
+	 * @see World#setSolverIterations(int)
+	 */
+	public double getSolverTime() {
+		return solverTime / 1000000000d;
+	}
+
+	/**
+	 * Returns the time the whole update took.
+	 *
+	 * @return the time in seconds.
+	 */
+	public double getUpdateTime() {
+		return updateTime / 1000000000d;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d steps, %d bodies, %d candidates (layer %d, static %d, trigger %d, parent %d, resting %d), " +
+				"%d pairs, %d bounds, %d SAT, %d contacts, " +
+				"integrate %.3f ms, broadphase %.3f ms, narrowphase %.3f ms, solver %.3f ms, update %.3f ms",
+				steps, bodiesIntegrated, candidatePairs, layerRejections, staticRejections,
+				triggerRejections, parentRejections, restingRejections,
+				pairs, boundsRejections, satTests, contacts,
+				integrateTime / 1000000d, broadphaseTime / 1000000d, narrowphaseTime / 1000000d,
+				solverTime / 1000000d, updateTime / 1000000d);
+	}
+}